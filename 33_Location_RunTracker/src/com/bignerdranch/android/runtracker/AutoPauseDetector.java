@@ -0,0 +1,134 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.LinkedList;
+
+import android.location.Location;
+
+/**
+ * Detects when a run is standing still (e.g., waiting at a crossing), so that the near-identical
+ * locations received meanwhile are not recorded and the time does not count as moving time.
+ * <p>
+ * The run is paused once every location over the last 10 seconds stayed within 8 meters of the
+ * newest one and none reported a speed of 0.5 m/s or more. The pause starts at the first of those
+ * locations, when the run came to a standstill. The location that triggers the pause is still
+ * recorded, as the anchor of the pause; the run resumes with the first location that is 15 meters
+ * (or its accuracy, if worse) away from the anchor, or that reports moving. A run stopped while
+ * paused ends at the anchor, with the pause up to it taken by {@link #finish()}.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class AutoPauseDetector {
+    private static final long WINDOW_MILLIS = 10000;
+    private static final float STILL_SPEED = 0.5f;
+    private static final float STILL_RADIUS_METERS = 8;
+    private static final float RESUME_RADIUS_METERS = 15;
+
+    private final long mRunId;
+    private final LinkedList<Location> mWindow = new LinkedList<Location>();
+
+    private Location mAnchor;
+    private long mPauseStartMillis;
+    private Location mLastSuppressed;
+    private Pause mFinishedPause;
+
+    /**
+     * Creates a new {@code AutoPauseDetector} for the run with the given ID, starting out moving.
+     *
+     * @param runId the ID of the run
+     */
+    public AutoPauseDetector(long runId) {
+        mRunId = runId;
+    }
+
+    /**
+     * Determine whether the run is currently paused.
+     *
+     * @return {@code true} if the run is paused; otherwise {@code false}
+     */
+    public boolean isPaused() {
+        return mAnchor != null;
+    }
+
+    /**
+     * Feeds the next location of the run to the detector. If the location resumes the run, the
+     * pause that it ends can then be taken with {@link #takeFinishedPause()}.
+     *
+     * @param loc the next location of the run
+     * @return {@code true} if the location should be recorded; {@code false} if the run is paused
+     */
+    public boolean accept(Location loc) {
+        if (mAnchor != null) {
+            float resumeRadius = Math.max(RESUME_RADIUS_METERS, loc.getAccuracy());
+            if (!isMoving(loc) && mAnchor.distanceTo(loc) < resumeRadius) {
+                mLastSuppressed = loc;
+                return false;
+            }
+            resume();
+            return true;
+        }
+
+        mWindow.addLast(loc);
+        // Keep just enough locations to span the window.
+        while (mWindow.size() > 1
+                && loc.getTime() - mWindow.get(1).getTime() >= WINDOW_MILLIS) {
+            mWindow.removeFirst();
+        }
+        if (loc.getTime() - mWindow.getFirst().getTime() >= WINDOW_MILLIS && isStill()) {
+            mAnchor = loc;
+            mPauseStartMillis = mWindow.getFirst().getTime();
+            mWindow.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Takes the pause ended by the last call to {@link #accept(Location)}, if any.
+     *
+     * @return the pause that was ended, or {@code null} if none
+     */
+    public Pause takeFinishedPause() {
+        Pause pause = mFinishedPause;
+        mFinishedPause = null;
+        return pause;
+    }
+
+    /**
+     * Ends the run. If it is paused, the run ends at the anchor, and the pause up to it is
+     * returned.
+     *
+     * @return the pause in progress, up to the anchor, or {@code null} if the run is not paused
+     */
+    public Pause finish() {
+        Pause pause = null;
+        if (mAnchor != null) {
+            pause = new Pause(mRunId, mPauseStartMillis, mAnchor.getTime());
+        }
+        mAnchor = null;
+        mLastSuppressed = null;
+        mWindow.clear();
+        return pause;
+    }
+
+    private void resume() {
+        // The run was still from the start of the pause up to the last location that was not
+        // recorded.
+        mFinishedPause = new Pause(mRunId, mPauseStartMillis,
+                (mLastSuppressed != null ? mLastSuppressed : mAnchor).getTime());
+        mAnchor = null;
+        mLastSuppressed = null;
+    }
+
+    private boolean isStill() {
+        Location newest = mWindow.getLast();
+        for (Location loc : mWindow) {
+            if (isMoving(loc) || loc.distanceTo(newest) > STILL_RADIUS_METERS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMoving(Location loc) {
+        return loc.hasSpeed() && loc.getSpeed() >= STILL_SPEED;
+    }
+}
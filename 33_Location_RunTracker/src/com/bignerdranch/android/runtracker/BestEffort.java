@@ -0,0 +1,68 @@
+package com.bignerdranch.android.runtracker;
+
+/**
+ * The fastest effort over a fixed distance (e.g., 5 km) within a single {@link Run}. The effort
+ * may start and end anywhere in the run.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class BestEffort {
+    /** The distances (in meters) for which best efforts are tracked. */
+    public static final int[] TARGET_METERS = { 1000, 5000, 10000 };
+
+    private long mRunId;
+    private int mTargetMeters;
+    private long mElapsedMillis;
+    private long mStartTimestamp;
+
+    /**
+     * Creates a new {@code BestEffort}.
+     *
+     * @param runId the ID of the run in which the effort happened
+     * @param targetMeters the distance of the effort (in meters)
+     * @param elapsedMillis the time taken to cover the distance (in milliseconds)
+     * @param startTimestamp the (interpolated) time at which the effort started
+     */
+    public BestEffort(long runId, int targetMeters, long elapsedMillis, long startTimestamp) {
+        mRunId = runId;
+        mTargetMeters = targetMeters;
+        mElapsedMillis = elapsedMillis;
+        mStartTimestamp = startTimestamp;
+    }
+
+    /**
+     * Gets the ID of the run in which this effort happened.
+     *
+     * @return the ID of the run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the distance of this effort.
+     *
+     * @return the distance of this effort (in meters)
+     */
+    public int getTargetMeters() {
+        return mTargetMeters;
+    }
+
+    /**
+     * Gets the time taken to cover the distance of this effort.
+     *
+     * @return the duration of this effort (in milliseconds)
+     */
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * Gets the time at which this effort started.
+     *
+     * @return the start time of this effort (in milliseconds since the epoch)
+     */
+    public long getStartTimestamp() {
+        return mStartTimestamp;
+    }
+}
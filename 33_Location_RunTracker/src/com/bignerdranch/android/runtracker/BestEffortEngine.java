@@ -0,0 +1,148 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds and stores the {@link BestEffort}s of runs: the fastest time over each of
+ * {@link BestEffort#TARGET_METERS} anywhere within a run. Each run's best efforts are stored
+ * separately, so the best effort over the whole history is a single indexed read.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class BestEffortEngine {
+    private final RunDatabaseHelper mHelper;
+
+    /**
+     * Creates a new {@code BestEffortEngine} working on the given database.
+     *
+     * @param helper the database to read tracks from and write best efforts to
+     */
+    public BestEffortEngine(RunDatabaseHelper helper) {
+        mHelper = helper;
+    }
+
+    /**
+     * Finds the fastest effort over the given distance within the given track, in linear time.
+     * Each effort ends at a location of the track; its start is interpolated between the two
+     * locations around it.
+     *
+     * @param track the track to search
+     * @param targetMeters the distance of the effort (in meters)
+     * @return the fastest effort, or {@code null} if the track is shorter than the distance
+     */
+    public static BestEffort findBestEffort(Track track, int targetMeters) {
+        double[] meters = track.getCumulativeMeters();
+        long[] times = track.getTimestamps();
+        BestEffort best = null;
+        int start = 0;
+        for (int end = 1; end < track.size(); end++) {
+            // Move the start of the window up as far as possible while it still covers the
+            // target distance. It never moves back, so both ends cross the track only once.
+            while (start + 1 < end && meters[end] - meters[start + 1] >= targetMeters) {
+                start++;
+            }
+            if (meters[end] - meters[start] < targetMeters) {
+                continue;
+            }
+            // The effort starts between "start" and "start + 1", exactly targetMeters before
+            // "end".
+            double segmentMeters = meters[start + 1] - meters[start];
+            double fraction = segmentMeters > 0
+                    ? (meters[end] - targetMeters - meters[start]) / segmentMeters
+                    : 0;
+            long startMillis = times[start]
+                    + Math.round(fraction * (times[start + 1] - times[start]));
+            long elapsedMillis = times[end] - startMillis;
+            if (best == null || elapsedMillis < best.getElapsedMillis()) {
+                best = new BestEffort(track.getRunId(), targetMeters, elapsedMillis, startMillis);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the fastest effort over each of {@link BestEffort#TARGET_METERS} within the given
+     * track.
+     *
+     * @param track the track to search
+     * @return the best efforts found (none for distances longer than the track)
+     */
+    public static List<BestEffort> findBestEfforts(Track track) {
+        List<BestEffort> efforts = new ArrayList<BestEffort>();
+        for (int targetMeters : BestEffort.TARGET_METERS) {
+            BestEffort effort = findBestEffort(track, targetMeters);
+            if (effort != null) {
+                efforts.add(effort);
+            }
+        }
+        return efforts;
+    }
+
+    /**
+     * Recomputes and stores the best efforts of the run with the given ID, e.g. once it has
+     * finished.
+     *
+     * @param runId the ID of the run to update
+     */
+    public void updateRun(long runId) {
+        List<Long> runIds = new ArrayList<Long>(1);
+        runIds.add(runId);
+        mHelper.replaceBestEfforts(runIds, findBestEfforts(mHelper.queryTrack(runId)));
+    }
+
+    /**
+     * Recomputes and stores the best efforts of every run not yet computed, using the given
+     * number of threads. See {@link Recomputer} for how the runs are processed and how an
+     * interrupted computation resumes.
+     *
+     * @param threads the number of runs to process in parallel
+     * @throws InterruptedException if interrupted while waiting for the runs to be processed
+     */
+    public void updateAllRuns(int threads) throws InterruptedException {
+        new Recomputer(mHelper).run(new BestEffortJob(), threads);
+    }
+
+    private class BestEffortJob implements RecomputeJob<RunEfforts> {
+        // Increase the version whenever findBestEffort() changes, to recompute every run.
+        private static final int VERSION = 1;
+
+        @Override
+        public String getName() {
+            return "best_efforts";
+        }
+
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+
+        @Override
+        public RunEfforts compute(long runId) {
+            return new RunEfforts(runId, findBestEfforts(mHelper.queryTrack(runId)));
+        }
+
+        @Override
+        public void write(RunDatabaseHelper helper, List<RunEfforts> results) {
+            // Runs too short for any effort are written too, to clear any efforts they had
+            // before.
+            List<Long> runIds = new ArrayList<Long>(results.size());
+            List<BestEffort> efforts = new ArrayList<BestEffort>();
+            for (RunEfforts result : results) {
+                runIds.add(result.mRunId);
+                efforts.addAll(result.mEfforts);
+            }
+            helper.replaceBestEfforts(runIds, efforts);
+        }
+    }
+
+    private static class RunEfforts {
+        private final long mRunId;
+        private final List<BestEffort> mEfforts;
+
+        public RunEfforts(long runId, List<BestEffort> efforts) {
+            mRunId = runId;
+            mEfforts = efforts;
+        }
+    }
+}
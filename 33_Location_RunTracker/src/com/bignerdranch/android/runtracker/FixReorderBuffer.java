@@ -0,0 +1,99 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.location.Location;
+
+/**
+ * Holds the incoming locations of a run for a short while, so that they can be recorded in order
+ * of time, without duplicates. Providers sometimes deliver a location twice, or a little out of
+ * order, and the last known location broadcast when a run starts may be delivered again as the
+ * first fresh fix.
+ * <p>
+ * Each location is held until one at least 2 seconds newer has arrived (or, if more than 16 are
+ * held, until it is the oldest), and is then released in order of time. A location is dropped if
+ * it has the same time as its neighbor, if it is within 250 ms and 1 meter of its neighbor, or if
+ * it arrives after a newer location has already been released. So the released locations always
+ * move strictly forward in time.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class FixReorderBuffer {
+    private static final long WINDOW_MILLIS = 2000;
+    private static final int MAX_HELD = 16;
+    private static final long NEAR_DUPLICATE_MILLIS = 250;
+    private static final double NEAR_DUPLICATE_METERS = 1;
+
+    // Sorted by time.
+    private final List<Location> mHeld = new ArrayList<Location>();
+    private Location mLastReleased;
+    private long mNewestTime = Long.MIN_VALUE;
+
+    /**
+     * Creates a new {@code FixReorderBuffer} for a run whose last recorded location (if any) is
+     * given; locations no newer than it are dropped.
+     *
+     * @param lastRecorded the last location already recorded for the run, or {@code null}
+     */
+    public FixReorderBuffer(Location lastRecorded) {
+        mLastReleased = lastRecorded;
+    }
+
+    /**
+     * Adds the next location received, and releases any locations whose time is up.
+     *
+     * @param loc the location received
+     * @param released receives the released locations, in order of time
+     * @return {@code true} if the location was kept; {@code false} if it was dropped
+     */
+    public boolean add(Location loc, List<Location> released) {
+        long time = loc.getTime();
+        if (mLastReleased != null && time <= mLastReleased.getTime()) {
+            return false;
+        }
+        // Nearly always in order already, so search from the newest.
+        int index = mHeld.size();
+        while (index > 0 && mHeld.get(index - 1).getTime() > time) {
+            index--;
+        }
+        Location previous = index > 0 ? mHeld.get(index - 1) : mLastReleased;
+        Location next = index < mHeld.size() ? mHeld.get(index) : null;
+        if ((previous != null && isDuplicate(previous, loc))
+                || (next != null && isDuplicate(loc, next))) {
+            return false;
+        }
+        mHeld.add(index, loc);
+        mNewestTime = Math.max(mNewestTime, time);
+
+        while (!mHeld.isEmpty() && (mHeld.size() > MAX_HELD
+                || mHeld.get(0).getTime() <= mNewestTime - WINDOW_MILLIS)) {
+            release(released);
+        }
+        return true;
+    }
+
+    /**
+     * Releases every location still held, e.g., when the run is stopped.
+     *
+     * @param released receives the released locations, in order of time
+     */
+    public void flush(List<Location> released) {
+        while (!mHeld.isEmpty()) {
+            release(released);
+        }
+    }
+
+    private void release(List<Location> released) {
+        mLastReleased = mHeld.remove(0);
+        released.add(mLastReleased);
+    }
+
+    // Whether the later of two locations adds nothing to the earlier one.
+    private static boolean isDuplicate(Location earlier, Location later) {
+        long millis = later.getTime() - earlier.getTime();
+        return millis == 0 || (millis < NEAR_DUPLICATE_MILLIS
+                && Geodesy.haversineMeters(earlier.getLatitude(), earlier.getLongitude(),
+                        later.getLatitude(), later.getLongitude()) < NEAR_DUPLICATE_METERS);
+    }
+}
@@ -0,0 +1,188 @@
+package com.bignerdranch.android.runtracker;
+
+/**
+ * Distance kernels that work on whole arrays of coordinates (in degrees) at once, for analyses
+ * over many locations, where creating a {@link android.location.Location} per point and calling
+ * {@code distanceTo()} per pair would dominate.
+ * <p>
+ * Each kernel first computes the terms that depend on a single point (the radii of curvature, or
+ * the cosine of the latitude) in a pass of its own, so that each is computed once per point rather
+ * than once per pair. {@link #segmentMeters(double[], double[], int, double[])} then needs only
+ * arithmetic and a square root per pair. The haversine kernels still need two sines, a square
+ * root and an arcsine per pair, so they do more work per point, and are meant for distances too
+ * long to treat as flat.
+ * <p>
+ * {@link #segmentMeters(double[], double[], int, double[])} measures on the WGS84 ellipsoid, like
+ * {@code Location.distanceBetween()}, by treating each segment as flat at the local radii of
+ * curvature. For segments of up to 1 km (far longer than between two fixes) it stays within 1e-7
+ * of the exact ellipsoidal distance, and for segments of up to 10 km within 3e-6, at latitudes up
+ * to 80 degrees. The haversine kernels measure on a sphere of the Earth's mean radius instead,
+ * which holds for any distance but differs from the ellipsoid by up to 0.56%.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Geodesy {
+    /** The mean radius of the Earth (in meters), used by the haversine kernels. */
+    public static final double MEAN_EARTH_RADIUS_METERS = 6371008.8;
+
+    private static final double WGS84_SEMI_MAJOR_AXIS_METERS = 6378137.0;
+    private static final double WGS84_FLATTENING = 1 / 298.257223563;
+    private static final double WGS84_ECCENTRICITY_SQUARED =
+            WGS84_FLATTENING * (2 - WGS84_FLATTENING);
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180;
+
+    private Geodesy() {
+        // Only static methods.
+    }
+
+    /**
+     * Computes the distance between each pair of consecutive points on the WGS84 ellipsoid, using
+     * the local radii of curvature (see the class documentation for its accuracy).
+     *
+     * @param latitudes the latitudes of the points (in degrees)
+     * @param longitudes the longitudes of the points (in degrees)
+     * @param size the number of points
+     * @param meters receives the distance from point {@code i - 1} to point {@code i} at index
+     *        {@code i} (in meters), and {@code 0} at index {@code 0}
+     */
+    public static void segmentMeters(double[] latitudes, double[] longitudes, int size,
+            double[] meters) {
+        // The meridional radius, and the radius of the parallel, at each point.
+        double[] meridional = new double[size];
+        double[] parallel = new double[size];
+        for (int i = 0; i < size; i++) {
+            double phi = latitudes[i] * RADIANS_PER_DEGREE;
+            double sin = Math.sin(phi);
+            double w = 1 - WGS84_ECCENTRICITY_SQUARED * sin * sin;
+            double sqrtW = Math.sqrt(w);
+            meridional[i] = WGS84_SEMI_MAJOR_AXIS_METERS * (1 - WGS84_ECCENTRICITY_SQUARED)
+                    / (w * sqrtW);
+            parallel[i] = WGS84_SEMI_MAJOR_AXIS_METERS * Math.cos(phi) / sqrtW;
+        }
+        if (size > 0) {
+            meters[0] = 0;
+        }
+        for (int i = 1; i < size; i++) {
+            double dLat = latitudes[i] - latitudes[i - 1];
+            double dLon = wrapDegrees(longitudes[i] - longitudes[i - 1]);
+            double y = 0.5 * (meridional[i] + meridional[i - 1]) * dLat * RADIANS_PER_DEGREE;
+            double x = 0.5 * (parallel[i] + parallel[i - 1]) * dLon * RADIANS_PER_DEGREE;
+            meters[i] = Math.sqrt(x * x + y * y);
+        }
+    }
+
+    /**
+     * Computes the distance between two points on the WGS84 ellipsoid, exactly as
+     * {@link #segmentMeters(double[], double[], int, double[])} computes it for two consecutive
+     * points, so that distances summed a segment at a time match those of whole tracks.
+     *
+     * @param latitude1 the latitude of the first point (in degrees)
+     * @param longitude1 the longitude of the first point (in degrees)
+     * @param latitude2 the latitude of the second point (in degrees)
+     * @param longitude2 the longitude of the second point (in degrees)
+     * @return the distance between the points (in meters)
+     */
+    public static double segmentMeters(double latitude1, double longitude1, double latitude2,
+            double longitude2) {
+        double phi1 = latitude1 * RADIANS_PER_DEGREE;
+        double sin1 = Math.sin(phi1);
+        double w1 = 1 - WGS84_ECCENTRICITY_SQUARED * sin1 * sin1;
+        double sqrtW1 = Math.sqrt(w1);
+        double phi2 = latitude2 * RADIANS_PER_DEGREE;
+        double sin2 = Math.sin(phi2);
+        double w2 = 1 - WGS84_ECCENTRICITY_SQUARED * sin2 * sin2;
+        double sqrtW2 = Math.sqrt(w2);
+        double meridional1 = WGS84_SEMI_MAJOR_AXIS_METERS * (1 - WGS84_ECCENTRICITY_SQUARED)
+                / (w1 * sqrtW1);
+        double meridional2 = WGS84_SEMI_MAJOR_AXIS_METERS * (1 - WGS84_ECCENTRICITY_SQUARED)
+                / (w2 * sqrtW2);
+        double parallel1 = WGS84_SEMI_MAJOR_AXIS_METERS * Math.cos(phi1) / sqrtW1;
+        double parallel2 = WGS84_SEMI_MAJOR_AXIS_METERS * Math.cos(phi2) / sqrtW2;
+
+        double dLat = latitude2 - latitude1;
+        double dLon = wrapDegrees(longitude2 - longitude1);
+        double y = 0.5 * (meridional2 + meridional1) * dLat * RADIANS_PER_DEGREE;
+        double x = 0.5 * (parallel2 + parallel1) * dLon * RADIANS_PER_DEGREE;
+        return Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Computes the great-circle distance between each pair of consecutive points, on a sphere of
+     * {@link #MEAN_EARTH_RADIUS_METERS}. The cosine of each latitude is computed only once.
+     *
+     * @param latitudes the latitudes of the points (in degrees)
+     * @param longitudes the longitudes of the points (in degrees)
+     * @param size the number of points
+     * @param meters receives the distance from point {@code i - 1} to point {@code i} at index
+     *        {@code i} (in meters), and {@code 0} at index {@code 0}
+     */
+    public static void haversineSegmentMeters(double[] latitudes, double[] longitudes, int size,
+            double[] meters) {
+        double[] cosLat = new double[size];
+        for (int i = 0; i < size; i++) {
+            cosLat[i] = Math.cos(latitudes[i] * RADIANS_PER_DEGREE);
+        }
+        if (size > 0) {
+            meters[0] = 0;
+        }
+        for (int i = 1; i < size; i++) {
+            meters[i] = haversine(latitudes[i] - latitudes[i - 1],
+                    longitudes[i] - longitudes[i - 1], cosLat[i - 1] * cosLat[i]);
+        }
+    }
+
+    /**
+     * Computes the great-circle distance from the given origin to each of the given points, on a
+     * sphere of {@link #MEAN_EARTH_RADIUS_METERS}. The cosine of each latitude is computed only
+     * once.
+     *
+     * @param originLatitude the latitude of the origin (in degrees)
+     * @param originLongitude the longitude of the origin (in degrees)
+     * @param latitudes the latitudes of the points (in degrees)
+     * @param longitudes the longitudes of the points (in degrees)
+     * @param size the number of points
+     * @param meters receives the distance from the origin to point {@code i} at index {@code i}
+     *        (in meters)
+     */
+    public static void haversineMetersFrom(double originLatitude, double originLongitude,
+            double[] latitudes, double[] longitudes, int size, double[] meters) {
+        // The product of the cosines of the origin's and each point's latitude, in place.
+        double originCos = Math.cos(originLatitude * RADIANS_PER_DEGREE);
+        for (int i = 0; i < size; i++) {
+            meters[i] = originCos * Math.cos(latitudes[i] * RADIANS_PER_DEGREE);
+        }
+        for (int i = 0; i < size; i++) {
+            meters[i] = haversine(latitudes[i] - originLatitude, longitudes[i] - originLongitude,
+                    meters[i]);
+        }
+    }
+
+    /**
+     * Computes the great-circle distance between two points, on a sphere of
+     * {@link #MEAN_EARTH_RADIUS_METERS}.
+     *
+     * @param latitude1 the latitude of the first point (in degrees)
+     * @param longitude1 the longitude of the first point (in degrees)
+     * @param latitude2 the latitude of the second point (in degrees)
+     * @param longitude2 the longitude of the second point (in degrees)
+     * @return the distance between the points (in meters)
+     */
+    public static double haversineMeters(double latitude1, double longitude1, double latitude2,
+            double longitude2) {
+        return haversine(latitude2 - latitude1, longitude2 - longitude1,
+                Math.cos(latitude1 * RADIANS_PER_DEGREE)
+                        * Math.cos(latitude2 * RADIANS_PER_DEGREE));
+    }
+
+    private static double haversine(double dLat, double dLon, double cosProduct) {
+        double sinHalfLat = Math.sin(0.5 * dLat * RADIANS_PER_DEGREE);
+        double sinHalfLon = Math.sin(0.5 * dLon * RADIANS_PER_DEGREE);
+        double h = sinHalfLat * sinHalfLat + cosProduct * sinHalfLon * sinHalfLon;
+        return 2 * MEAN_EARTH_RADIUS_METERS * Math.asin(Math.sqrt(Math.min(1, h)));
+    }
+
+    // Wraps a longitude difference into [-180, 180], so segments across the antimeridian are short.
+    private static double wrapDegrees(double degrees) {
+        return degrees - 360 * Math.rint(degrees / 360);
+    }
+}
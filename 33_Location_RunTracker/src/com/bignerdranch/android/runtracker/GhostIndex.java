@@ -0,0 +1,91 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.Date;
+
+/**
+ * A compact index of a previous run (the "ghost") that tells, for any distance, how long into the
+ * run that distance was reached. It is built once from the run's {@link Track}, so comparing a
+ * live run against it costs a binary search per location and no database reads.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class GhostIndex {
+    private final long mRunId;
+    private final int mSize;
+    private final double[] mMeters;
+    private final long[] mElapsedMillis;
+
+    private GhostIndex(long runId, int size, double[] meters, long[] elapsedMillis) {
+        mRunId = runId;
+        mSize = size;
+        mMeters = meters;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Builds a {@code GhostIndex} for the run with the given track and start date.
+     *
+     * @param track the track of the run
+     * @param startDate the start date of the run, from which elapsed times are measured
+     * @return the index for the run
+     */
+    public static GhostIndex build(Track track, Date startDate) {
+        int size = track.size();
+        long[] timestamps = track.getTimestamps();
+        long[] elapsedMillis = new long[size];
+        for (int i = 0; i < size; i++) {
+            elapsedMillis[i] = timestamps[i] - startDate.getTime();
+        }
+        return new GhostIndex(track.getRunId(), size, track.getCumulativeMeters(), elapsedMillis);
+    }
+
+    /**
+     * Gets the ID of the indexed run.
+     *
+     * @return the ID of the indexed run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the total distance of the indexed run.
+     *
+     * @return the distance of the run (in meters)
+     */
+    public double getTotalMeters() {
+        return mSize > 0 ? mMeters[mSize - 1] : 0;
+    }
+
+    /**
+     * Gets the time into the indexed run at which it first covered the given distance,
+     * interpolating between locations.
+     *
+     * @param meters the distance (in meters)
+     * @return the time at which the run covered the distance (in milliseconds since its start),
+     *         or {@code -1} if the run never covered that distance
+     */
+    public long getElapsedMillisAt(double meters) {
+        if (mSize == 0 || meters > mMeters[mSize - 1]) {
+            return -1;
+        }
+        // Find the first location at or beyond the given distance.
+        int low = 0;
+        int high = mSize - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMeters[mid] < meters) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return mElapsedMillis[0];
+        }
+        double segmentMeters = mMeters[low] - mMeters[low - 1];
+        double fraction = (meters - mMeters[low - 1]) / segmentMeters;
+        return mElapsedMillis[low - 1]
+                + Math.round(fraction * (mElapsedMillis[low] - mElapsedMillis[low - 1]));
+    }
+}
@@ -0,0 +1,236 @@
+package com.bignerdranch.android.runtracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A sparse heatmap of every recorded location: how many locations fell into each cell of a grid
+ * laid over the Web Mercator map. The grid divides each map tile at zoom level
+ * {@link #TILE_ZOOM} (about 600 meters across at the equator) into 64 x 64 cells, and only cells
+ * that were visited are stored. The heatmap also remembers how many locations of each run it
+ * counts, so that a run can be added again as it grows, or subtracted when it is deleted.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Heatmap {
+    /** The zoom level of the map tiles that the heatmap's cells subdivide. */
+    public static final int TILE_ZOOM = 16;
+    /** The number of bits of a cell's position within its tile, along either axis. */
+    public static final int CELL_BITS = 6;
+
+    private static final int MAGIC = 0x5254484D; // "RTHM"
+    private static final int FORMAT_VERSION = 1;
+    private static final long WORLD_CELLS = 1L << (TILE_ZOOM + CELL_BITS);
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+    private static final int TILE_BITS = 2 * CELL_BITS;
+
+    private final LongIntHashMap mCells = new LongIntHashMap();
+    private final LongIntHashMap mRunLocationCounts = new LongIntHashMap();
+
+    /**
+     * Gets the key of the cell containing the given point. Keys sort by tile (x, then y), and by
+     * cell within each tile, so the cells of a tile are contiguous in key order.
+     *
+     * @param latitude the latitude of the point (in degrees)
+     * @param longitude the longitude of the point (in degrees)
+     * @return the key of the cell
+     */
+    public static long getCellKey(double latitude, double longitude) {
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sinLat = Math.sin(Math.toRadians(lat));
+        double x = (longitude + 180) / 360;
+        double y = 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+        long cellX = Math.max(0, Math.min(WORLD_CELLS - 1, (long)(x * WORLD_CELLS)));
+        long cellY = Math.max(0, Math.min(WORLD_CELLS - 1, (long)(y * WORLD_CELLS)));
+        return getCellKey(cellX >> CELL_BITS, cellY >> CELL_BITS,
+                (int)cellX & CELL_MASK, (int)cellY & CELL_MASK);
+    }
+
+    private static long getCellKey(long tileX, long tileY, int cellX, int cellY) {
+        return (((tileX << TILE_ZOOM) | tileY) << TILE_BITS) | (cellY << CELL_BITS) | cellX;
+    }
+
+    /**
+     * Gets the x coordinate of the tile (at zoom level {@link #TILE_ZOOM}) containing the cell
+     * with the given key.
+     *
+     * @param cellKey the key of the cell
+     * @return the x coordinate of the cell's tile
+     */
+    public static int getTileX(long cellKey) {
+        return (int)(cellKey >>> (TILE_BITS + TILE_ZOOM));
+    }
+
+    /**
+     * Gets the y coordinate of the tile (at zoom level {@link #TILE_ZOOM}) containing the cell
+     * with the given key.
+     *
+     * @param cellKey the key of the cell
+     * @return the y coordinate of the cell's tile
+     */
+    public static int getTileY(long cellKey) {
+        return (int)(cellKey >>> TILE_BITS) & ((1 << TILE_ZOOM) - 1);
+    }
+
+    /**
+     * Gets the number of locations counted in the cell with the given key.
+     *
+     * @param cellKey the key of the cell
+     * @return the number of locations in the cell
+     */
+    public int getCount(long cellKey) {
+        return mCells.get(cellKey);
+    }
+
+    /**
+     * Gets the number of visited cells in this heatmap.
+     *
+     * @return the number of cells with at least one location
+     */
+    public int getCellCount() {
+        return mCells.size();
+    }
+
+    /**
+     * Gets the number of locations of the run with the given ID counted in this heatmap.
+     *
+     * @param runId the ID of the run
+     * @return the number of the run's locations counted
+     */
+    public int getLocationCount(long runId) {
+        return mRunLocationCounts.get(runId);
+    }
+
+    /**
+     * Counts the locations of the given track from the given index on. The locations before the
+     * index are assumed to have been counted already.
+     *
+     * @param track the track to count
+     * @param fromIndex the index of the first location to count
+     */
+    public void addTrack(Track track, int fromIndex) {
+        countTrack(track, fromIndex, track.size(), 1);
+    }
+
+    /**
+     * Uncounts every location of the given track's run that this heatmap counts. The track must
+     * hold at least those locations, in the same order as when they were counted.
+     *
+     * @param track the track to uncount
+     */
+    public void subtractTrack(Track track) {
+        int counted = Math.min(track.size(), mRunLocationCounts.get(track.getRunId()));
+        countTrack(track, 0, counted, -1);
+    }
+
+    private void countTrack(Track track, int fromIndex, int toIndex, int delta) {
+        double[] latitudes = track.getLatitudes();
+        double[] longitudes = track.getLongitudes();
+        for (int i = fromIndex; i < toIndex; i++) {
+            mCells.add(getCellKey(latitudes[i], longitudes[i]), delta);
+        }
+        mRunLocationCounts.add(track.getRunId(), delta * (toIndex - fromIndex));
+    }
+
+    /**
+     * Adds every count of the given heatmap to this one, and clears the given heatmap.
+     *
+     * @param other the heatmap to merge into this one
+     */
+    public void mergeFrom(Heatmap other) {
+        mCells.addAll(other.mCells);
+        mRunLocationCounts.addAll(other.mRunLocationCounts);
+        other.mCells.clear();
+        other.mRunLocationCounts.clear();
+    }
+
+    /**
+     * Writes this heatmap in its compact binary form: a header, the number of locations counted
+     * per run, and then each visited tile with the counts of its visited cells. Run IDs, tiles and
+     * cells are written in ascending order as {@link VarLong} deltas from the previous one.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the heatmap could not be written
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(TILE_ZOOM);
+        out.writeByte(CELL_BITS);
+
+        long[] runIds = mRunLocationCounts.sortedKeys();
+        VarLong.write(out, runIds.length);
+        long previous = 0;
+        for (long runId : runIds) {
+            VarLong.write(out, runId - previous);
+            VarLong.write(out, mRunLocationCounts.get(runId));
+            previous = runId;
+        }
+
+        long[] keys = mCells.sortedKeys();
+        int tileCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || (keys[i] >>> TILE_BITS) != (keys[i - 1] >>> TILE_BITS)) {
+                tileCount++;
+            }
+        }
+        VarLong.write(out, tileCount);
+        long previousTile = 0;
+        int start = 0;
+        while (start < keys.length) {
+            long tile = keys[start] >>> TILE_BITS;
+            int end = start;
+            while (end < keys.length && (keys[end] >>> TILE_BITS) == tile) {
+                end++;
+            }
+            VarLong.write(out, tile - previousTile);
+            VarLong.write(out, end - start);
+            int previousCell = 0;
+            for (int i = start; i < end; i++) {
+                int cell = (int)keys[i] & ((1 << TILE_BITS) - 1);
+                VarLong.write(out, cell - previousCell);
+                VarLong.write(out, mCells.get(keys[i]));
+                previousCell = cell;
+            }
+            previousTile = tile;
+            start = end;
+        }
+    }
+
+    /**
+     * Reads a heatmap written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @return the heatmap read
+     * @throws IOException if the heatmap could not be read, or was written in another format
+     */
+    public static Heatmap readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION
+                || in.readByte() != TILE_ZOOM || in.readByte() != CELL_BITS) {
+            throw new IOException("Not a heatmap in the current format");
+        }
+        Heatmap heatmap = new Heatmap();
+
+        long runCount = VarLong.read(in);
+        long runId = 0;
+        for (long i = 0; i < runCount; i++) {
+            runId += VarLong.read(in);
+            heatmap.mRunLocationCounts.put(runId, (int)VarLong.read(in));
+        }
+
+        long tileCount = VarLong.read(in);
+        long tile = 0;
+        for (long i = 0; i < tileCount; i++) {
+            tile += VarLong.read(in);
+            long cellCount = VarLong.read(in);
+            long cell = 0;
+            for (long j = 0; j < cellCount; j++) {
+                cell += VarLong.read(in);
+                heatmap.mCells.put((tile << TILE_BITS) | cell, (int)VarLong.read(in));
+            }
+        }
+        return heatmap;
+    }
+}
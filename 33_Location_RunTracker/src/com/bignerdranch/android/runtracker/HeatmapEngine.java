@@ -0,0 +1,199 @@
+package com.bignerdranch.android.runtracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
+
+/**
+ * Builds the {@link Heatmap} of all recorded runs and keeps it up to date, storing it in a single
+ * file. The heatmap is built once from every run in parallel, and from then on updated one run at
+ * a time, as runs finish or are deleted.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class HeatmapEngine {
+    private static final String TAG = "HeatmapEngine";
+
+    private static final String HEATMAP_FILE = "heatmap.bin";
+    // The number of cells a worker collects before merging them into the shared heatmap.
+    private static final int WORKER_FLUSH_CELLS = 1 << 16;
+
+    private final RunDatabaseHelper mHelper;
+    private final File mFile;
+
+    /**
+     * Creates a new {@code HeatmapEngine} working on the given database.
+     *
+     * @param helper the database to read tracks from
+     * @param filesDir the directory in which to store the heatmap
+     */
+    public HeatmapEngine(RunDatabaseHelper helper, File filesDir) {
+        mHelper = helper;
+        mFile = new File(filesDir, HEATMAP_FILE);
+    }
+
+    /**
+     * Determine whether the heatmap has been built.
+     *
+     * @return {@code true} if the heatmap has been built; otherwise {@code false}
+     */
+    public boolean isBuilt() {
+        return mFile.exists();
+    }
+
+    /**
+     * Loads the stored heatmap.
+     *
+     * @return the heatmap, or an empty heatmap if it has not been built yet
+     * @throws IOException if the heatmap could not be read
+     */
+    public Heatmap load() throws IOException {
+        if (!mFile.exists()) {
+            return new Heatmap();
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            return Heatmap.readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save(Heatmap heatmap) throws IOException {
+        // Write to a temporary file first, so that a failed write leaves the old heatmap intact.
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            heatmap.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    /**
+     * Builds the heatmap from every run, using the given number of threads, and stores it. Each
+     * thread takes the next unprocessed run until none are left, counting into a heatmap of its
+     * own that it merges into the shared one whenever it grows large. Only one track per thread
+     * is held in memory at once.
+     *
+     * @param threads the number of runs to process in parallel
+     * @throws IOException if the heatmap could not be stored
+     * @throws InterruptedException if interrupted while waiting for the runs to be processed
+     */
+    public void buildAll(int threads) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        final List<Long> runIds = new ArrayList<Long>();
+        RunCursor cursor = mHelper.queryRuns();
+        while (cursor.moveToNext()) {
+            runIds.add(cursor.getRun().getId());
+        }
+        cursor.close();
+
+        final Heatmap shared = new Heatmap();
+        final AtomicInteger nextRun = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Heatmap local = new Heatmap();
+                        int index;
+                        while ((index = nextRun.getAndIncrement()) < runIds.size()) {
+                            local.addTrack(mHelper.queryTrack(runIds.get(index)), 0);
+                            if (local.getCellCount() >= WORKER_FLUSH_CELLS) {
+                                synchronized (shared) {
+                                    shared.mergeFrom(local);
+                                }
+                            }
+                        }
+                        synchronized (shared) {
+                            shared.mergeFrom(local);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    // IOException(String, Throwable) needs API level 9.
+                    IOException failure = new IOException("Failed to build the heatmap");
+                    failure.initCause(e.getCause());
+                    throw failure;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        synchronized (shared) {
+            save(shared);
+        }
+        Log.d(TAG, "Built heatmap of " + runIds.size() + " runs (" + shared.getCellCount()
+                + " cells) on " + threads + " threads in " + (System.nanoTime() - start) / 1000000
+                + " ms");
+    }
+
+    /**
+     * Adds the locations of the run with the given ID that the heatmap does not count yet, e.g.
+     * once the run has finished. Does nothing if the heatmap has not been built yet, since
+     * building it will count the run.
+     *
+     * @param runId the ID of the run to add
+     * @throws IOException if the heatmap could not be read or stored
+     */
+    public void updateRun(long runId) throws IOException {
+        if (!isBuilt()) {
+            return;
+        }
+        Heatmap heatmap = load();
+        Track track = mHelper.queryTrack(runId);
+        int counted = heatmap.getLocationCount(runId);
+        if (counted < track.size()) {
+            heatmap.addTrack(track, counted);
+            save(heatmap);
+        }
+    }
+
+    /**
+     * Subtracts the locations of the run with the given ID from the heatmap, e.g. before the run
+     * is deleted. Must be called while the run's locations are still in the database.
+     *
+     * @param runId the ID of the run to subtract
+     * @throws IOException if the heatmap could not be read or stored
+     */
+    public void removeRun(long runId) throws IOException {
+        if (!isBuilt()) {
+            return;
+        }
+        Heatmap heatmap = load();
+        if (heatmap.getLocationCount(runId) > 0) {
+            heatmap.subtractTrack(mHelper.queryTrack(runId));
+            save(heatmap);
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class LocationReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         Location loc = (Location)intent.getParcelableExtra(LocationManager.KEY_LOCATION_CHANGED);
         if (loc != null) {
-            onLocationReceived(context, loc);
+            onLocationReceived(context, intent.getLongExtra(RunManager.EXTRA_RUN_ID, -1), loc);
             return;
         }
         // If we get here, something else has happened.
@@ -43,6 +43,20 @@ public class LocationReceiver extends BroadcastReceiver {
                 + ", " + loc.getLongitude());
     }
 
+    /**
+     * The method that is called when the {@code LocationReceiver} receives a location broadcast
+     * tagged with the ID of the run it belongs to. By default, ignores the run ID and calls
+     * {@link #onLocationReceived(Context, Location)}.
+     *
+     * @param context the context in which the receiver is running
+     * @param runId the ID of the run the location belongs to, or {@code -1} if the location is not
+     *        tagged with a run
+     * @param loc the location that was received
+     */
+    protected void onLocationReceived(Context context, long runId, Location loc) {
+        onLocationReceived(context, loc);
+    }
+
     /**
      * The method that is called when a provider for the location broadcasts is enabled/disabled.
      *
@@ -0,0 +1,43 @@
+package com.bignerdranch.android.runtracker;
+
+/**
+ * Starts and stops the location updates of the runs tracked by a {@link RunManager}. The updates
+ * themselves are delivered to {@link RunManager#insertLocation(long, android.location.Location)}.
+ * By default they come from the {@link android.location.LocationManager}; a {@code RunManager}
+ * made for testing may be given a source that never touches the device's location.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public interface LocationSource {
+
+    /**
+     * Gets the name of the provider to use for a run when none is given.
+     *
+     * @return the name of the default location provider
+     */
+    String getDefaultProvider();
+
+    /**
+     * Starts the location updates of the run with the given ID.
+     *
+     * @param runId the ID of the run
+     * @param provider the name of the location provider feeding the run
+     */
+    void start(long runId, String provider);
+
+    /**
+     * Stops the location updates of the run with the given ID, if they were started.
+     *
+     * @param runId the ID of the run
+     */
+    void stop(long runId);
+
+    /**
+     * Determines whether the location updates of the run with the given ID are started. Unlike
+     * the sessions of a {@code RunManager}, this may outlive the process.
+     *
+     * @param runId the ID of the run
+     * @return {@code true} if the run's location updates are started; otherwise {@code false}
+     */
+    boolean isStarted(long runId);
+}
@@ -0,0 +1,176 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative {@code long} keys to {@code int} values, stored in two primitive
+ * arrays (open addressing with linear probing) so that millions of entries cost no per-entry
+ * objects. Not thread-safe.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+
+    /**
+     * Creates a new, empty {@code LongIntHashMap}.
+     */
+    public LongIntHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mValues = new int[capacity];
+    }
+
+    /**
+     * Gets the number of entries in this map.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the value for the given key.
+     *
+     * @param key the key to look up (must not be negative)
+     * @return the value for the key, or {@code 0} if the key is not in this map
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return mKeys[slot] == EMPTY ? 0 : mValues[slot];
+    }
+
+    /**
+     * Adds the given amount to the value for the given key (treating a missing key as
+     * {@code 0}). An entry whose value drops to {@code 0} is removed.
+     *
+     * @param key the key to update (must not be negative)
+     * @param delta the amount to add
+     * @return the new value for the key
+     */
+    public int add(long key, int delta) {
+        int slot = find(key);
+        if (mKeys[slot] == EMPTY) {
+            if (delta == 0) {
+                return 0;
+            }
+            mKeys[slot] = key;
+            mValues[slot] = delta;
+            if (++mSize > mKeys.length * 3 / 4) {
+                rehash(mKeys.length * 2);
+            }
+            return delta;
+        }
+        int value = mValues[slot] + delta;
+        if (value == 0) {
+            removeSlot(slot);
+        } else {
+            mValues[slot] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Sets the value for the given key. Setting a value of {@code 0} removes the key.
+     *
+     * @param key the key to set (must not be negative)
+     * @param value the value to set
+     */
+    public void put(long key, int value) {
+        add(key, value - get(key));
+    }
+
+    /**
+     * Adds every entry of the given map to this map, summing the values of shared keys.
+     *
+     * @param other the map to add
+     */
+    public void addAll(LongIntHashMap other) {
+        for (int i = 0; i < other.mKeys.length; i++) {
+            if (other.mKeys[i] != EMPTY) {
+                add(other.mKeys[i], other.mValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry from this map, and releases its memory.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        mSize = 0;
+    }
+
+    /**
+     * Gets the keys of this map, in ascending order.
+     *
+     * @return a new array holding the keys of this map
+     */
+    public long[] sortedKeys() {
+        long[] keys = new long[mSize];
+        int n = 0;
+        for (long key : mKeys) {
+            if (key != EMPTY) {
+                keys[n++] = key;
+            }
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        // Shift later entries of the probe sequence back, so that no lookup stops early.
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (mKeys[next] != EMPTY) {
+            int home = hash(mKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[hole] = EMPTY;
+        mValues[hole] = 0;
+        mSize--;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
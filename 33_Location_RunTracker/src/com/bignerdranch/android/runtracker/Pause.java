@@ -0,0 +1,62 @@
+package com.bignerdranch.android.runtracker;
+
+/**
+ * An interval of a {@link Run} during which the runner stood still, detected by the
+ * {@link AutoPauseDetector}. Paused time does not count towards the run's moving time.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Pause {
+    private long mRunId;
+    private long mStartTimestamp;
+    private long mEndTimestamp;
+
+    /**
+     * Creates a new {@code Pause}.
+     *
+     * @param runId the ID of the run that was paused
+     * @param startTimestamp the time at which the run was paused
+     * @param endTimestamp the time at which the run was resumed
+     */
+    public Pause(long runId, long startTimestamp, long endTimestamp) {
+        mRunId = runId;
+        mStartTimestamp = startTimestamp;
+        mEndTimestamp = endTimestamp;
+    }
+
+    /**
+     * Gets the ID of the run that was paused.
+     *
+     * @return the ID of the run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the time at which the run was paused.
+     *
+     * @return the start time of this pause (in milliseconds since the epoch)
+     */
+    public long getStartTimestamp() {
+        return mStartTimestamp;
+    }
+
+    /**
+     * Gets the time at which the run was resumed.
+     *
+     * @return the end time of this pause (in milliseconds since the epoch)
+     */
+    public long getEndTimestamp() {
+        return mEndTimestamp;
+    }
+
+    /**
+     * Gets the length of this pause.
+     *
+     * @return the duration of this pause (in milliseconds)
+     */
+    public long getDurationMillis() {
+        return mEndTimestamp - mStartTimestamp;
+    }
+}
@@ -0,0 +1,46 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.List;
+
+/**
+ * A piece of data derived from each run that the {@link Recomputer} can backfill for every run,
+ * e.g. when it is first introduced or when the way it is derived changes.
+ *
+ * @param <T> the type of the data derived from a single run
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public interface RecomputeJob<T> {
+
+    /**
+     * Gets the name of this job, under which its progress is checkpointed.
+     *
+     * @return the unique name of this job
+     */
+    String getName();
+
+    /**
+     * Gets the version of this job. Increasing the version recomputes every run, even those
+     * already computed by an earlier version.
+     *
+     * @return the version of this job
+     */
+    int getVersion();
+
+    /**
+     * Derives the data of the run with the given ID. Called on a worker thread, possibly on
+     * several runs at once, so this must only read from the database.
+     *
+     * @param runId the ID of the run
+     * @return the derived data of the run
+     */
+    T compute(long runId);
+
+    /**
+     * Stores the derived data of a batch of runs. Called on a single thread, inside a transaction
+     * that also records the job's progress.
+     *
+     * @param helper the database to write to
+     * @param results the derived data of the runs in the batch, in run ID order
+     */
+    void write(RunDatabaseHelper helper, List<T> results);
+}
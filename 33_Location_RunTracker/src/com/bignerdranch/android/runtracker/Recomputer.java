@@ -0,0 +1,104 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.util.Log;
+
+/**
+ * Runs {@link RecomputeJob}s over every run, in parallel. Runs are taken in batches in order of
+ * their IDs; while one batch is being written (in a single transaction), the next one is already
+ * being computed. Each batch's transaction also checkpoints the ID of its last run, so a job that
+ * is interrupted, or whose process is killed, resumes after the last batch it wrote, and a job
+ * that has finished only computes runs added since. The checkpoint never passes a run whose
+ * computation failed, so that run is retried the next time the job runs.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Recomputer {
+    private static final String TAG = "Recomputer";
+
+    private static final int BATCH_RUNS = 64;
+
+    private final RunDatabaseHelper mHelper;
+
+    /**
+     * Creates a new {@code Recomputer} working on the given database.
+     *
+     * @param helper the database holding the runs
+     */
+    public Recomputer(RunDatabaseHelper helper) {
+        mHelper = helper;
+    }
+
+    /**
+     * Runs the given job over every run it has not yet computed, using the given number of
+     * threads. At most two batches of runs are in flight at once, so memory use does not grow
+     * with the number of runs. If the computation of a run fails, the runs before it are written
+     * and the job stops there, to retry that run the next time it runs.
+     *
+     * @param <T> the type of the data derived from a single run
+     * @param job the job to run
+     * @param threads the number of runs to compute in parallel
+     * @throws InterruptedException if interrupted while waiting for runs to be computed; the job
+     *         resumes from its last checkpoint when run again
+     */
+    public <T> void run(RecomputeJob<T> job, int threads) throws InterruptedException {
+        long start = System.nanoTime();
+        int runCount = 0;
+        long[] batch = mHelper.queryRunIds(
+                mHelper.queryRecomputeCheckpoint(job.getName(), job.getVersion()), BATCH_RUNS);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> pending = submit(pool, job, batch);
+            while (batch.length > 0) {
+                long[] nextBatch = mHelper.queryRunIds(batch[batch.length - 1], BATCH_RUNS);
+                List<Future<T>> nextPending = submit(pool, job, nextBatch);
+
+                List<T> results = new ArrayList<T>(batch.length);
+                try {
+                    for (int i = 0; i < batch.length; i++) {
+                        results.add(pending.get(i).get());
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(TAG, job.getName() + " failed on run " + batch[results.size()]
+                            + "; stopping until the job runs again", e.getCause());
+                }
+                if (!results.isEmpty()) {
+                    mHelper.writeRecomputeBatch(job, results, batch[results.size() - 1]);
+                    runCount += results.size();
+                }
+                if (results.size() < batch.length) {
+                    break;
+                }
+
+                batch = nextBatch;
+                pending = nextPending;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Log.d(TAG, "Ran " + job.getName() + " (version " + job.getVersion() + ") over " + runCount
+                + " runs on " + threads + " threads in " + (System.nanoTime() - start) / 1000000
+                + " ms");
+    }
+
+    private static <T> List<Future<T>> submit(ExecutorService pool, final RecomputeJob<T> job,
+            long[] runIds) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(runIds.length);
+        for (final long runId : runIds) {
+            futures.add(pool.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return job.compute(runId);
+                }
+            }));
+        }
+        return futures;
+    }
+}
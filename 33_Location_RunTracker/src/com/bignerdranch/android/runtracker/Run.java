@@ -12,6 +12,9 @@ import java.util.Date;
 public class Run {
     private long mId;
     private Date mStartDate;
+    private double mDistanceMeters;
+    private long mDurationMillis;
+    private long mMovingMillis;
 
     /**
      * Creates a new {@code Run} with an invalid ID. By default, the start date of the newly created
@@ -58,6 +61,62 @@ public class Run {
         mStartDate = startDate;
     }
 
+    /**
+     * Gets the distance covered by this run, as recorded so far.
+     *
+     * @return the distance of this run (in meters)
+     */
+    public double getDistanceMeters() {
+        return mDistanceMeters;
+    }
+
+    /**
+     * Sets the distance covered by this run to the given value.
+     *
+     * @param distanceMeters the distance to set (in meters)
+     */
+    public void setDistanceMeters(double distanceMeters) {
+        mDistanceMeters = distanceMeters;
+    }
+
+    /**
+     * Gets the duration of this run (from its start date to its last location), as recorded so
+     * far.
+     *
+     * @return the duration of this run (in milliseconds)
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * Sets the recorded duration of this run to the given value.
+     *
+     * @param durationMillis the duration to set (in milliseconds)
+     */
+    public void setDurationMillis(long durationMillis) {
+        mDurationMillis = durationMillis;
+    }
+
+    /**
+     * Gets the moving time of this run: its duration, less the time it was automatically paused
+     * (see {@link AutoPauseDetector}), as recorded so far.
+     *
+     * @return the moving time of this run (in milliseconds)
+     */
+    public long getMovingMillis() {
+        return mMovingMillis;
+    }
+
+    /**
+     * Sets the recorded moving time of this run to the given value.
+     *
+     * @param movingMillis the moving time to set (in milliseconds)
+     */
+    public void setMovingMillis(long movingMillis) {
+        mMovingMillis = movingMillis;
+    }
+
     /**
      * Gets the duration of this run, in milliseconds, with the given run end time.
      *
@@ -14,12 +14,18 @@ public class RunActivity extends SingleFragmentActivity {
      * A key for passing a run ID as a long.
      */
     public static final String EXTRA_RUN_ID = "com.bignerdranch.android.runtracker.run_id";
+    /**
+     * A key for passing the ID of a previous run to race against, as a long.
+     */
+    public static final String EXTRA_GHOST_RUN_ID =
+            "com.bignerdranch.android.runtracker.ghost_run_id";
 
     @Override
     protected Fragment createFragment() {
         long runId = getIntent().getLongExtra(EXTRA_RUN_ID, -1);
-        if (runId != -1) {
-            return RunFragment.newInstance(runId);
+        long ghostRunId = getIntent().getLongExtra(EXTRA_GHOST_RUN_ID, -1);
+        if (runId != -1 || ghostRunId != -1) {
+            return RunFragment.newInstance(runId, ghostRunId);
         } else {
             return new RunFragment();
         }
@@ -0,0 +1,354 @@
+package com.bignerdranch.android.runtracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.BulkInserter;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.LocationCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.PauseCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.SplitCursor;
+
+/**
+ * Writes runs to compact snapshots, and restores runs from them. A snapshot holds the runs after
+ * a given run ID, so a snapshot of only the runs added since the last one can be taken; restoring
+ * a full snapshot and then each later one, in order, restores every run.
+ * <p>
+ * A snapshot is a header followed by one block per run, and an end block holding the number of
+ * runs. Each run block holds the run with its locations, splits and pauses, deflated and
+ * checksummed on its own, so a damaged snapshot is detected at the first bad block. Within a
+ * block, times are written as deltas from the previous time, coordinates as the XOR of their bits
+ * with the previous location's (both small for consecutive locations, and exact), and each
+ * provider name only the first time it is used.
+ * <p>
+ * A snapshot of the runs added since the last one does not pick up locations added later to a
+ * run it has already written (when that run is resumed): only a full snapshot writes them.
+ * <p>
+ * Restored runs are matched to the runs already in the database by start date, not by ID, since
+ * the IDs of runs recorded on different devices (or after the database was cleared) collide.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunArchiver {
+    private static final String TAG = "RunArchiver";
+
+    private static final int MAGIC = 0x5254534E; // "RTSN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BLOCK_END = 0;
+    private static final int BLOCK_RUN = 1;
+
+    private static final int QUERY_BATCH_RUNS = 64;
+    // Restored rows are committed at the end of the first run that reaches this many.
+    private static final int RESTORE_BATCH_ROWS = 8192;
+    // Larger than the block of any run that can be recorded (about a week of locations at 1 Hz),
+    // so that a damaged length is caught before it is allocated.
+    private static final int MAX_BLOCK_BYTES = 16 * 1024 * 1024;
+
+    private final RunDatabaseHelper mHelper;
+
+    /**
+     * Creates a new {@code RunArchiver} working on the given database.
+     *
+     * @param helper the database to read runs from and restore runs to
+     */
+    public RunArchiver(RunDatabaseHelper helper) {
+        mHelper = helper;
+    }
+
+    /**
+     * Writes a snapshot of the runs with IDs after {@code afterRunId} and before
+     * {@code beforeRunId}. The stream is flushed, but not closed.
+     *
+     * @param out the stream to write to
+     * @param afterRunId the ID after which to start (or {@code 0} for a full snapshot)
+     * @param beforeRunId the ID at which to stop, e.g. that of the first run still being tracked
+     * @return the ID of the last run written, from which to take the next snapshot
+     * @throws IOException if the snapshot could not be written
+     */
+    public long writeSnapshot(OutputStream out, long afterRunId, long beforeRunId)
+            throws IOException {
+        long start = System.nanoTime();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(FORMAT_VERSION);
+        data.writeLong(afterRunId);
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        CRC32 crc = new CRC32();
+        long lastRunId = afterRunId;
+        int runCount = 0;
+        try {
+            long[] runIds = mHelper.queryRunIds(lastRunId, QUERY_BATCH_RUNS);
+            while (runIds.length > 0 && runIds[0] < beforeRunId) {
+                for (long runId : runIds) {
+                    if (runId >= beforeRunId) {
+                        break;
+                    }
+                    raw.reset();
+                    if (!encodeRun(new DataOutputStream(raw), runId)) {
+                        continue; // Deleted since its ID was read
+                    }
+                    byte[] rawBytes = raw.toByteArray();
+
+                    compressed.reset();
+                    deflater.reset();
+                    DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater);
+                    deflating.write(rawBytes);
+                    deflating.finish();
+                    crc.reset();
+                    crc.update(rawBytes);
+
+                    data.writeByte(BLOCK_RUN);
+                    data.writeInt(rawBytes.length);
+                    data.writeInt(compressed.size());
+                    data.writeInt((int)crc.getValue());
+                    compressed.writeTo(data);
+                    lastRunId = runId;
+                    runCount++;
+                }
+                runIds = mHelper.queryRunIds(runIds[runIds.length - 1], QUERY_BATCH_RUNS);
+            }
+        } finally {
+            deflater.end();
+        }
+        data.writeByte(BLOCK_END);
+        data.writeInt(runCount);
+        data.flush();
+        Log.d(TAG, "Wrote snapshot of " + runCount + " runs in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return lastRunId;
+    }
+
+    private boolean encodeRun(DataOutputStream out, long runId) throws IOException {
+        RunCursor runCursor = mHelper.queryRun(runId);
+        runCursor.moveToFirst();
+        Run run = runCursor.getRun();
+        runCursor.close();
+        if (run == null) {
+            return false;
+        }
+        long startMillis = run.getStartDate().getTime();
+        VarLong.write(out, runId);
+        VarLong.writeSigned(out, startMillis);
+        out.writeDouble(run.getDistanceMeters());
+        VarLong.writeSigned(out, run.getDurationMillis());
+        VarLong.writeSigned(out, run.getMovingMillis());
+
+        LocationCursor locations = mHelper.queryLocationsForRun(runId);
+        try {
+            VarLong.write(out, locations.getCount());
+            // Provider 0 is none; a provider one past the last known one is new, and follows.
+            Map<String, Integer> providers = new HashMap<String, Integer>();
+            long previousMillis = startMillis;
+            long previousLatitude = 0;
+            long previousLongitude = 0;
+            long previousAltitude = 0;
+            while (locations.moveToNext()) {
+                Location loc = locations.getLocation();
+                String provider = loc.getProvider();
+                if (provider == null) {
+                    VarLong.write(out, 0);
+                } else if (providers.containsKey(provider)) {
+                    VarLong.write(out, providers.get(provider));
+                } else {
+                    providers.put(provider, providers.size() + 1);
+                    VarLong.write(out, providers.size());
+                    out.writeUTF(provider);
+                }
+                VarLong.writeSigned(out, loc.getTime() - previousMillis);
+                long latitude = Double.doubleToLongBits(loc.getLatitude());
+                long longitude = Double.doubleToLongBits(loc.getLongitude());
+                long altitude = Double.doubleToLongBits(loc.getAltitude());
+                VarLong.write(out, latitude ^ previousLatitude);
+                VarLong.write(out, longitude ^ previousLongitude);
+                VarLong.write(out, altitude ^ previousAltitude);
+                previousMillis = loc.getTime();
+                previousLatitude = latitude;
+                previousLongitude = longitude;
+                previousAltitude = altitude;
+            }
+        } finally {
+            locations.close();
+        }
+
+        List<Split> splits = new ArrayList<Split>();
+        for (int unit = 0; unit < Split.getUnitCount(); unit++) {
+            SplitCursor cursor = mHelper.querySplitsForRun(runId, unit);
+            while (cursor.moveToNext()) {
+                splits.add(cursor.getSplit());
+            }
+            cursor.close();
+        }
+        VarLong.write(out, splits.size());
+        for (Split split : splits) {
+            VarLong.write(out, split.getUnit());
+            VarLong.write(out, split.getIndex());
+            VarLong.writeSigned(out, split.getElapsedMillis());
+            VarLong.writeSigned(out, split.getEndTimestamp() - startMillis);
+        }
+
+        PauseCursor pauses = mHelper.queryPausesForRun(runId);
+        try {
+            VarLong.write(out, pauses.getCount());
+            while (pauses.moveToNext()) {
+                Pause pause = pauses.getPause();
+                VarLong.writeSigned(out, pause.getStartTimestamp() - startMillis);
+                VarLong.writeSigned(out, pause.getDurationMillis());
+            }
+        } finally {
+            pauses.close();
+        }
+        return true;
+    }
+
+    /**
+     * Restores the runs in the given snapshot. Runs that already exist (with the same start
+     * date) are skipped, so restoring a snapshot again (e.g. after an earlier restore failed part
+     * way) only adds the runs that are missing. A restored run keeps its ID unless a different
+     * run already has it, in which case it is given a new one. The stream is not closed.
+     *
+     * @param in the stream to read the snapshot from
+     * @return the number of runs restored
+     * @throws IOException if the snapshot could not be read, or is damaged; the runs restored
+     *         before the failure are kept
+     */
+    public int restoreSnapshot(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readByte() != FORMAT_VERSION) {
+            throw new IOException("Not a snapshot in the current format");
+        }
+        data.readLong(); // The ID after which the snapshot starts
+
+        Inflater inflater = new Inflater();
+        CRC32 crc = new CRC32();
+        BulkInserter inserter = mHelper.beginBulkInsert();
+        boolean successful = false;
+        int blockCount = 0;
+        int restoredCount = 0;
+        try {
+            int type;
+            while ((type = data.readUnsignedByte()) == BLOCK_RUN) {
+                int rawLength = data.readInt();
+                int compressedLength = data.readInt();
+                int checksum = data.readInt();
+                if (rawLength < 0 || rawLength > MAX_BLOCK_BYTES
+                        || compressedLength < 0 || compressedLength > MAX_BLOCK_BYTES) {
+                    throw new IOException("Run block " + blockCount + " has an invalid length");
+                }
+                byte[] rawBytes = new byte[rawLength];
+                byte[] compressed = new byte[compressedLength];
+                data.readFully(compressed);
+
+                inflater.reset();
+                inflater.setInput(compressed);
+                try {
+                    if (inflater.inflate(rawBytes) != rawBytes.length || !inflater.finished()) {
+                        throw new IOException("Run block " + blockCount + " has the wrong length");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Run block " + blockCount + " is corrupt");
+                }
+                crc.reset();
+                crc.update(rawBytes);
+                if ((int)crc.getValue() != checksum) {
+                    throw new IOException("Run block " + blockCount + " fails its checksum");
+                }
+
+                if (decodeRun(new DataInputStream(new ByteArrayInputStream(rawBytes)), inserter)) {
+                    restoredCount++;
+                }
+                blockCount++;
+                // Only whole runs are committed, since existing runs are skipped on a retry.
+                if (inserter.getPendingRowCount() >= RESTORE_BATCH_ROWS) {
+                    inserter.commit();
+                }
+            }
+            if (type != BLOCK_END || data.readInt() != blockCount) {
+                throw new IOException("Snapshot is truncated after " + blockCount + " runs");
+            }
+            successful = true;
+        } finally {
+            inserter.close(successful);
+            inflater.end();
+        }
+        Log.d(TAG, "Restored " + restoredCount + " of " + blockCount + " runs in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return restoredCount;
+    }
+
+    private static boolean decodeRun(DataInputStream in, BulkInserter inserter)
+            throws IOException {
+        Run run = new Run();
+        run.setId(VarLong.read(in));
+        long startMillis = VarLong.readSigned(in);
+        run.setStartDate(new Date(startMillis));
+        run.setDistanceMeters(in.readDouble());
+        run.setDurationMillis(VarLong.readSigned(in));
+        run.setMovingMillis(VarLong.readSigned(in));
+        long runId = inserter.insertRun(run);
+        if (runId == -1) {
+            return false;
+        }
+
+        long locationCount = VarLong.read(in);
+        List<String> providers = new ArrayList<String>();
+        long previousMillis = startMillis;
+        long latitude = 0;
+        long longitude = 0;
+        long altitude = 0;
+        for (long i = 0; i < locationCount; i++) {
+            int providerIndex = (int)VarLong.read(in);
+            if (providerIndex > providers.size()) {
+                providers.add(in.readUTF());
+            }
+            String provider = providerIndex > 0 ? providers.get(providerIndex - 1) : null;
+            previousMillis += VarLong.readSigned(in);
+            latitude ^= VarLong.read(in);
+            longitude ^= VarLong.read(in);
+            altitude ^= VarLong.read(in);
+            inserter.insertLocation(runId, previousMillis, Double.longBitsToDouble(latitude),
+                    Double.longBitsToDouble(longitude), Double.longBitsToDouble(altitude),
+                    provider);
+        }
+
+        long splitCount = VarLong.read(in);
+        for (long i = 0; i < splitCount; i++) {
+            int unit = (int)VarLong.read(in);
+            int index = (int)VarLong.read(in);
+            long elapsedMillis = VarLong.readSigned(in);
+            long endTimestamp = startMillis + VarLong.readSigned(in);
+            inserter.insertSplit(new Split(runId, unit, index, elapsedMillis, endTimestamp));
+        }
+
+        long pauseCount = VarLong.read(in);
+        for (long i = 0; i < pauseCount; i++) {
+            long pauseStart = startMillis + VarLong.readSigned(in);
+            long pauseEnd = pauseStart + VarLong.readSigned(in);
+            inserter.insertPause(new Pause(runId, pauseStart, pauseEnd));
+        }
+        return true;
+    }
+}
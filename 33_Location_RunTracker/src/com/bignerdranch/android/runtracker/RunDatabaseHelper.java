@@ -1,14 +1,23 @@
 package com.bignerdranch.android.runtracker;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
+import android.os.Build;
+import android.util.Log;
 
 /**
  * Creates and upgrades a database for storing {@link Run}s and the locations associated with
@@ -19,12 +28,22 @@ import android.location.Location;
  * @author ajkwak@users.noreply.github.com (AJ Parmidge)
  */
 public class RunDatabaseHelper extends SQLiteOpenHelper {
+    private static final String TAG = "RunDatabaseHelper";
+
     private static final String DB_NAME = "runs.sqlite";
-    private static final int VERSION = 1;
+    private static final int VERSION = 7;
 
     private static final String TABLE_RUN = "run";
     private static final String COLUMN_RUN_ID = "_id";
     private static final String COLUMN_RUN_START_DATE = "start_date";
+    private static final String COLUMN_RUN_DISTANCE_METERS = "distance_meters";
+    private static final String COLUMN_RUN_DURATION_MILLIS = "duration_millis";
+    private static final String COLUMN_RUN_MOVING_MILLIS = "moving_millis";
+    private static final String[] RUN_SUMMARY_COLUMNS = { COLUMN_RUN_ID, COLUMN_RUN_START_DATE,
+            COLUMN_RUN_DISTANCE_METERS, COLUMN_RUN_DURATION_MILLIS, COLUMN_RUN_MOVING_MILLIS };
+    // Indexed by RunQuery.SORT_BY_*.
+    private static final String[] RUN_SORT_COLUMNS = { COLUMN_RUN_START_DATE,
+            COLUMN_RUN_DISTANCE_METERS, COLUMN_RUN_DURATION_MILLIS };
 
     private static final String TABLE_LOCATION = "location";
     private static final String COLUMN_LOCATION_LATITUDE = "latitude";
@@ -34,28 +53,253 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_LOCATION_PROVIDER = "provider";
     private static final String COLUMN_LOCATION_RUN_ID = "run_id";
 
+    private static final String TABLE_SPLIT = "split";
+    private static final String COLUMN_SPLIT_RUN_ID = "run_id";
+    private static final String COLUMN_SPLIT_UNIT = "unit";
+    private static final String COLUMN_SPLIT_INDEX = "split_index";
+    private static final String COLUMN_SPLIT_ELAPSED_MILLIS = "elapsed_millis";
+    private static final String COLUMN_SPLIT_END_TIMESTAMP = "end_timestamp";
+
+    private static final String TABLE_BEST_EFFORT = "best_effort";
+    private static final String COLUMN_BEST_EFFORT_RUN_ID = "run_id";
+    private static final String COLUMN_BEST_EFFORT_TARGET_METERS = "target_meters";
+    private static final String COLUMN_BEST_EFFORT_ELAPSED_MILLIS = "elapsed_millis";
+    private static final String COLUMN_BEST_EFFORT_START_TIMESTAMP = "start_timestamp";
+
+    private static final String TABLE_PAUSE = "pause";
+    private static final String COLUMN_PAUSE_RUN_ID = "run_id";
+    private static final String COLUMN_PAUSE_START_TIMESTAMP = "start_timestamp";
+    private static final String COLUMN_PAUSE_END_TIMESTAMP = "end_timestamp";
+
+    private static final String TABLE_RECOMPUTE_CHECKPOINT = "recompute_checkpoint";
+    private static final String COLUMN_RECOMPUTE_CHECKPOINT_JOB = "job";
+    private static final String COLUMN_RECOMPUTE_CHECKPOINT_VERSION = "version";
+    private static final String COLUMN_RECOMPUTE_CHECKPOINT_LAST_RUN_ID = "last_run_id";
+
+    // The SQL of the fixed queries whose plans are checked by the tests.
+    private static final String SQL_QUERY_RUNS = SQLiteQueryBuilder.buildQueryString(false,
+            TABLE_RUN, null, null, null, null, COLUMN_RUN_START_DATE + " asc", null);
+    private static final String SQL_QUERY_RUN = SQLiteQueryBuilder.buildQueryString(false,
+            TABLE_RUN, null, COLUMN_RUN_ID + " = ?", null, null, null, "1");
+    private static final String SQL_QUERY_LAST_LOCATION_FOR_RUN =
+            SQLiteQueryBuilder.buildQueryString(false, TABLE_LOCATION, null,
+                    COLUMN_LOCATION_RUN_ID + " = ?", null, null,
+                    COLUMN_LOCATION_TIMESTAMP + " desc", "1");
+
+    // Set by onCreate() until onOpen() has finished setting up the new database.
+    private boolean mCreated;
+
     /**
      * Creates a new {@code RunDatabaseHelper} with the given context.
      *
      * @param context the context to use
      */
     public RunDatabaseHelper(Context context) {
-        super(context, DB_NAME, null, VERSION);
+        this(context, DB_NAME);
+    }
+
+    /**
+     * Creates a new {@code RunDatabaseHelper} for the database with the given name, e.g. a scratch
+     * database to fill with synthetic runs.
+     *
+     * @param context the context to use
+     * @param name the name of the database file
+     */
+    public RunDatabaseHelper(Context context, String name) {
+        super(context, name, null, VERSION);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // Let deletions return their space to the file system a little at a time (see
+        // reclaimSpace()). This only takes effect with the VACUUM in onOpen().
+        db.execSQL("pragma auto_vacuum = incremental");
+        mCreated = true;
         // Create the "run" table.
         db.execSQL("create table run (_id integer primary key autoincrement, start_date integer)");
         // Create the "location" table.
         db.execSQL("create table location (" +
                 " timestamp integer, latitude real, longitude real, altitude real," +
                 " provider varchar(100), run_id integer references run(_id))");
+        createVersion2Schema(db);
+        createVersion3Schema(db);
+        createVersion4Schema(db);
+        createVersion5Schema(db);
+        createVersion6Schema(db);
+        createVersion7Schema(db);
+        // A new database has no runs recorded without splits.
+        markRecomputed(db, SplitBackfillJob.NAME, SplitBackfillJob.VERSION);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mCreated) {
+            // The database already holds Android's metadata table, so switching the vacuum mode
+            // needs a VACUUM; one that is still empty takes no time. It can't run in a
+            // transaction, so it can't run in onCreate().
+            mCreated = false;
+            db.execSQL("vacuum");
+        }
+        // With write-ahead logging, readers no longer wait on the sessions writing locations.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         // Implement schema changes and data massage here when upgrading.
+        if (oldVersion < 2) {
+            // Splits are backfilled by the SplitBackfillJob, off the upgrade path.
+            createVersion2Schema(db);
+        }
+        if (oldVersion < 3) {
+            createVersion3Schema(db);
+            backfillRunSummaries(db);
+        }
+        if (oldVersion < 4) {
+            // Best efforts are backfilled by the BestEffortEngine, off the upgrade path.
+            createVersion4Schema(db);
+        }
+        if (oldVersion < 5) {
+            createVersion5Schema(db);
+            // Older runs were never paused.
+            db.execSQL("update run set moving_millis = duration_millis");
+        }
+        if (oldVersion < 6) {
+            createVersion6Schema(db);
+        }
+        if (oldVersion < 7) {
+            createVersion7Schema(db);
+        }
+        if (oldVersion >= 2) {
+            // Every run already has its splits.
+            markRecomputed(db, SplitBackfillJob.NAME, SplitBackfillJob.VERSION);
+        }
+    }
+
+    private static void createVersion2Schema(SQLiteDatabase db) {
+        // Index the locations of each run by time, so that a single run can be read in order.
+        db.execSQL("create index location_run_id_timestamp on location (run_id, timestamp)");
+        // Create the "split" table.
+        db.execSQL("create table split (run_id integer references run(_id), unit integer," +
+                " split_index integer, elapsed_millis integer, end_timestamp integer)");
+        db.execSQL("create unique index split_run_id_unit_index on split" +
+                " (run_id, unit, split_index)");
+    }
+
+    private static void createVersion3Schema(SQLiteDatabase db) {
+        // Keep a summary of each run in the "run" table, so runs can be filtered and sorted by it.
+        db.execSQL("alter table run add column distance_meters real not null default 0");
+        db.execSQL("alter table run add column duration_millis integer not null default 0");
+        // One covering index per sort order: each holds every summary column, ordered by the sort
+        // key and then the run ID, so a page of runs is answered from the index alone.
+        db.execSQL("create index run_start_date on run" +
+                " (start_date, _id, distance_meters, duration_millis)");
+        db.execSQL("create index run_distance_meters on run" +
+                " (distance_meters, _id, start_date, duration_millis)");
+        db.execSQL("create index run_duration_millis on run" +
+                " (duration_millis, _id, start_date, distance_meters)");
+    }
+
+    private static void createVersion4Schema(SQLiteDatabase db) {
+        // Create the "best_effort" table.
+        db.execSQL("create table best_effort (run_id integer references run(_id)," +
+                " target_meters integer, elapsed_millis integer, start_timestamp integer)");
+        db.execSQL("create unique index best_effort_run_id_target on best_effort" +
+                " (run_id, target_meters)");
+        // Covers the lookup of the fastest efforts over each distance.
+        db.execSQL("create index best_effort_target_elapsed on best_effort" +
+                " (target_meters, elapsed_millis, run_id, start_timestamp)");
+    }
+
+    private static void createVersion5Schema(SQLiteDatabase db) {
+        // Create the "pause" table.
+        db.execSQL("create table pause (run_id integer references run(_id)," +
+                " start_timestamp integer, end_timestamp integer)");
+        db.execSQL("create index pause_run_id_start on pause (run_id, start_timestamp)");
+        // The moving time of each run is its duration less its pauses. It joins the covering
+        // indexes in version 7.
+        db.execSQL("alter table run add column moving_millis integer not null default 0");
+    }
+
+    private static void createVersion6Schema(SQLiteDatabase db) {
+        // Create the "recompute_checkpoint" table: the progress of each RecomputeJob.
+        db.execSQL("create table recompute_checkpoint (job text primary key, version integer," +
+                " last_run_id integer)");
+    }
+
+    private static void createVersion7Schema(SQLiteDatabase db) {
+        // Add the moving time to each covering index, so that a page of runs shows it without
+        // reading the table.
+        db.execSQL("drop index run_start_date");
+        db.execSQL("drop index run_distance_meters");
+        db.execSQL("drop index run_duration_millis");
+        db.execSQL("create index run_start_date on run" +
+                " (start_date, _id, distance_meters, duration_millis, moving_millis)");
+        db.execSQL("create index run_distance_meters on run" +
+                " (distance_meters, _id, start_date, duration_millis, moving_millis)");
+        db.execSQL("create index run_duration_millis on run" +
+                " (duration_millis, _id, start_date, distance_meters, moving_millis)");
+    }
+
+    // Marks the given version of the given job as having computed every run, including those yet
+    // to be recorded.
+    private static void markRecomputed(SQLiteDatabase db, String job, int version) {
+        ContentValues cv = new ContentValues();
+        cv.put(COLUMN_RECOMPUTE_CHECKPOINT_JOB, job);
+        cv.put(COLUMN_RECOMPUTE_CHECKPOINT_VERSION, version);
+        cv.put(COLUMN_RECOMPUTE_CHECKPOINT_LAST_RUN_ID, Long.MAX_VALUE);
+        db.insertWithOnConflict(TABLE_RECOMPUTE_CHECKPOINT, null, cv,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Derives the distance and duration of every run recorded before they were tracked. Only
+     * the columns of version 3 exist yet: the moving time is set from the duration in version 5.
+     */
+    private static void backfillRunSummaries(SQLiteDatabase db) {
+        Cursor runs = db.query(TABLE_RUN, new String[] { COLUMN_RUN_ID },
+                null, null, null, null, null);
+        try {
+            while (runs.moveToNext()) {
+                long runId = runs.getLong(0);
+                SplitTracker tracker = new SplitTracker(runId);
+                Cursor locations = db.query(TABLE_LOCATION,
+                        new String[] { COLUMN_LOCATION_TIMESTAMP, COLUMN_LOCATION_LATITUDE,
+                                COLUMN_LOCATION_LONGITUDE },
+                        COLUMN_LOCATION_RUN_ID + " = ?",
+                        new String[] { String.valueOf(runId) },
+                        null, // Group by
+                        null, // Having
+                        COLUMN_LOCATION_TIMESTAMP + " asc");
+                try {
+                    while (locations.moveToNext()) {
+                        tracker.addLocation(locations.getLong(0), locations.getDouble(1),
+                                locations.getDouble(2));
+                    }
+                } finally {
+                    locations.close();
+                }
+                if (tracker.getLastTimestamp() != -1) {
+                    db.execSQL("update run set distance_meters = ?," +
+                            " duration_millis = max(0, ? - start_date) where _id = ?",
+                            new Object[] { tracker.getDistanceMeters(),
+                                    tracker.getLastTimestamp(), runId });
+                }
+            }
+        } finally {
+            runs.close();
+        }
+    }
+
+    private static void updateRunSummary(SQLiteDatabase db, long runId, double distanceMeters,
+            long lastTimestamp, long pausedMillis) {
+        db.execSQL("update run set distance_meters = ?," +
+                " duration_millis = max(0, ? - start_date)," +
+                " moving_millis = max(0, ? - start_date - ?) where _id = ?",
+                new Object[] { distanceMeters, lastTimestamp, lastTimestamp, pausedMillis, runId });
     }
 
     /**
@@ -80,6 +324,48 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
      *         if an error occurred
      */
     public long insertLocation(long runId, Location location) {
+        return getWritableDatabase().insert(TABLE_LOCATION, null,
+                toContentValues(runId, location));
+    }
+
+    /**
+     * Inserts the given locations, splits and pauses of the given run into the database, and
+     * updates the run's distance, duration and moving time, in a single transaction.
+     *
+     * @param runId the ID of the run associated with the locations
+     * @param locations the locations to insert
+     * @param splits the splits to insert
+     * @param pauses the pauses to insert
+     * @param distanceMeters the distance covered by the run so far (in meters)
+     * @param lastTimestamp the time of the last location of the run so far
+     * @param pausedMillis the total length of the run's pauses so far (in milliseconds)
+     */
+    public void insertLocations(long runId, List<Location> locations, List<Split> splits,
+            List<Pause> pauses, double distanceMeters, long lastTimestamp, long pausedMillis) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Location location : locations) {
+                db.insert(TABLE_LOCATION, null, toContentValues(runId, location));
+            }
+            for (Split split : splits) {
+                insertSplit(db, split);
+            }
+            for (Pause pause : pauses) {
+                ContentValues cv = new ContentValues();
+                cv.put(COLUMN_PAUSE_RUN_ID, pause.getRunId());
+                cv.put(COLUMN_PAUSE_START_TIMESTAMP, pause.getStartTimestamp());
+                cv.put(COLUMN_PAUSE_END_TIMESTAMP, pause.getEndTimestamp());
+                db.insert(TABLE_PAUSE, null, cv);
+            }
+            updateRunSummary(db, runId, distanceMeters, lastTimestamp, pausedMillis);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues toContentValues(long runId, Location location) {
         ContentValues cv = new ContentValues();
         cv.put(COLUMN_LOCATION_LATITUDE, location.getLatitude());
         cv.put(COLUMN_LOCATION_LONGITUDE, location.getLongitude());
@@ -87,7 +373,220 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
         cv.put(COLUMN_LOCATION_TIMESTAMP, location.getTime());
         cv.put(COLUMN_LOCATION_PROVIDER, location.getProvider());
         cv.put(COLUMN_LOCATION_RUN_ID, runId);
-        return getWritableDatabase().insert(TABLE_LOCATION, null, cv);
+        return cv;
+    }
+
+    /**
+     * Inserts the given split into the database. A split that has already been inserted is
+     * ignored.
+     *
+     * @param split the split to insert
+     * @return the ID of the row at which the split was inserted into the database, or {@code -1}
+     *         if the split already existed or an error occurred
+     */
+    public long insertSplit(Split split) {
+        return insertSplit(getWritableDatabase(), split);
+    }
+
+    private static long insertSplit(SQLiteDatabase db, Split split) {
+        ContentValues cv = new ContentValues();
+        cv.put(COLUMN_SPLIT_RUN_ID, split.getRunId());
+        cv.put(COLUMN_SPLIT_UNIT, split.getUnit());
+        cv.put(COLUMN_SPLIT_INDEX, split.getIndex());
+        cv.put(COLUMN_SPLIT_ELAPSED_MILLIS, split.getElapsedMillis());
+        cv.put(COLUMN_SPLIT_END_TIMESTAMP, split.getEndTimestamp());
+        return db.insertWithOnConflict(TABLE_SPLIT, null, cv, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Replaces the best efforts of the given runs with the given best efforts, in a single
+     * transaction.
+     *
+     * @param runIds the IDs of the runs whose best efforts to replace
+     * @param efforts the new best efforts of those runs
+     */
+    public void replaceBestEfforts(List<Long> runIds, List<BestEffort> efforts) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (long runId : runIds) {
+                db.delete(TABLE_BEST_EFFORT, COLUMN_BEST_EFFORT_RUN_ID + " = ?",
+                        new String[] { String.valueOf(runId) });
+            }
+            for (BestEffort effort : efforts) {
+                ContentValues cv = new ContentValues();
+                cv.put(COLUMN_BEST_EFFORT_RUN_ID, effort.getRunId());
+                cv.put(COLUMN_BEST_EFFORT_TARGET_METERS, effort.getTargetMeters());
+                cv.put(COLUMN_BEST_EFFORT_ELAPSED_MILLIS, effort.getElapsedMillis());
+                cv.put(COLUMN_BEST_EFFORT_START_TIMESTAMP, effort.getStartTimestamp());
+                db.insert(TABLE_BEST_EFFORT, null, cv);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores the results of a batch of runs computed by the given job, and checkpoints the job's
+     * progress, in a single transaction.
+     *
+     * @param <T> the type of the data derived from a single run
+     * @param job the job that computed the results
+     * @param results the results to store
+     * @param lastRunId the ID of the last run in the batch
+     */
+    public <T> void writeRecomputeBatch(RecomputeJob<T> job, List<T> results, long lastRunId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Any transactions the job begins are nested in this one.
+            job.write(this, results);
+            ContentValues cv = new ContentValues();
+            cv.put(COLUMN_RECOMPUTE_CHECKPOINT_JOB, job.getName());
+            cv.put(COLUMN_RECOMPUTE_CHECKPOINT_VERSION, job.getVersion());
+            cv.put(COLUMN_RECOMPUTE_CHECKPOINT_LAST_RUN_ID, lastRunId);
+            db.insertWithOnConflict(TABLE_RECOMPUTE_CHECKPOINT, null, cv,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Gets the ID of the last run that the given version of the given job has computed.
+     *
+     * @param job the name of the job
+     * @param version the version of the job
+     * @return the ID of the last run computed, or {@code 0} if that version of the job has not
+     *         computed any runs
+     */
+    public long queryRecomputeCheckpoint(String job, int version) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "select coalesce(max(last_run_id), 0) from recompute_checkpoint" +
+                " where job = ? and version = ?",
+                new String[] { job, String.valueOf(version) });
+    }
+
+    /**
+     * Gets the IDs of the runs following the given run ID, in ID order.
+     *
+     * @param afterRunId the ID after which to start (or {@code 0} to start at the first run)
+     * @param limit the maximum number of IDs to return
+     * @return the IDs of up to {@code limit} runs
+     */
+    public long[] queryRunIds(long afterRunId, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_RUN,
+                new String[] { COLUMN_RUN_ID },
+                COLUMN_RUN_ID + " > ?",
+                new String[] { String.valueOf(afterRunId) },
+                null, // Group by
+                null, // Having
+                COLUMN_RUN_ID + " asc",
+                String.valueOf(limit));
+        try {
+            long[] runIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                runIds[i] = cursor.getLong(0);
+            }
+            return runIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes up to the given number of locations of the given run, in a transaction of its own.
+     * Deleting a long run a chunk at a time keeps each write short, so that other writers (such
+     * as the sessions recording locations) only ever wait for one chunk.
+     *
+     * @param runId the ID of the run whose locations to delete
+     * @param limit the maximum number of locations to delete
+     * @return the number of locations deleted; less than {@code limit} once none are left
+     */
+    public int deleteLocationsForRun(long runId, int limit) {
+        return getWritableDatabase().delete(TABLE_LOCATION,
+                "rowid in (select rowid from " + TABLE_LOCATION + " where "
+                        + COLUMN_LOCATION_RUN_ID + " = ? limit ?)",
+                new String[] { String.valueOf(runId), String.valueOf(limit) });
+    }
+
+    /**
+     * Deletes the given run, along with its splits, pauses and best efforts, in a single
+     * transaction. Its locations must be deleted first, with
+     * {@link #deleteLocationsForRun(long, int)}.
+     *
+     * @param runId the ID of the run to delete
+     */
+    public void deleteRun(long runId) {
+        String[] args = new String[] { String.valueOf(runId) };
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SPLIT, COLUMN_SPLIT_RUN_ID + " = ?", args);
+            db.delete(TABLE_PAUSE, COLUMN_PAUSE_RUN_ID + " = ?", args);
+            db.delete(TABLE_BEST_EFFORT, COLUMN_BEST_EFFORT_RUN_ID + " = ?", args);
+            db.delete(TABLE_RUN, COLUMN_RUN_ID + " = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Determines whether the database uses incremental vacuuming, so that
+     * {@link #reclaimSpace(int)} can return the space freed by deletions to the file system.
+     * Databases created before the app supported it do not, until
+     * {@link #enableIncrementalVacuum()} is called.
+     *
+     * @return {@code true} if the database uses incremental vacuuming; otherwise {@code false}
+     */
+    public boolean isIncrementalVacuumEnabled() {
+        // 2 is INCREMENTAL; databases were originally created with 0 (NONE).
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "pragma auto_vacuum", null) == 2;
+    }
+
+    /**
+     * Switches the database to incremental vacuuming, if it does not use it yet. Switching
+     * rewrites the whole database once (a full VACUUM), blocking every other reader and writer
+     * meanwhile, which can take minutes for years of runs. So this is only ever done when the
+     * user asks for it, never on the UI thread, and never while runs are being recorded.
+     *
+     * @return {@code true} if the database was switched; {@code false} if it already used
+     *         incremental vacuuming
+     */
+    public boolean enableIncrementalVacuum() {
+        if (isIncrementalVacuumEnabled()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        db.execSQL("pragma auto_vacuum = incremental");
+        db.execSQL("vacuum");
+        Log.d(TAG, "Enabled incremental vacuum in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return true;
+    }
+
+    /**
+     * Returns up to the given number of free pages to the file system, if the database uses
+     * incremental vacuuming (see {@link #isIncrementalVacuumEnabled()}); otherwise does nothing.
+     * Each call holds the database only for as long as it takes to free that many pages.
+     *
+     * @param maxPages the maximum number of pages to free
+     * @return the number of pages freed; less than {@code maxPages} once none are left
+     */
+    public int reclaimSpace(int maxPages) {
+        // The pragma returns a row per page freed, and only frees the next page when that row is
+        // read, so it is run as a query and read to the end.
+        Cursor cursor = getWritableDatabase().rawQuery("pragma incremental_vacuum(" + maxPages
+                + ")", null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -97,11 +596,97 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
      */
     public RunCursor queryRuns() {
         // Equivalent to "select * from run order by start_date asc".
-        Cursor wrapped = getReadableDatabase().query(TABLE_RUN,
-                null, null, null, null, null, COLUMN_RUN_START_DATE + " asc");
+        Cursor wrapped = getReadableDatabase().rawQuery(SQL_QUERY_RUNS, null);
         return new RunCursor(wrapped);
     }
 
+    /**
+     * Gets a cursor for the page of runs described by the given query. Only the run summary
+     * columns are read, so that the page can be answered from a covering index.
+     *
+     * @param query the runs to query
+     * @return a cursor for the matching runs, in the query's sort order
+     */
+    public RunCursor queryRuns(RunQuery query) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildRunsQuery(query, selectionArgs);
+        Cursor wrapped = getReadableDatabase().rawQuery(sql,
+                selectionArgs.toArray(new String[selectionArgs.size()]));
+        return new RunCursor(wrapped);
+    }
+
+    private static String buildRunsQuery(RunQuery query, List<String> selectionArgs) {
+        StringBuilder selection = new StringBuilder();
+        if (query.getStartDateFrom() != null) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_START_DATE + " >= ?",
+                    query.getStartDateFrom().getTime());
+        }
+        if (query.getStartDateTo() != null) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_START_DATE + " < ?",
+                    query.getStartDateTo().getTime());
+        }
+        if (query.getMinDistanceMeters() >= 0) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_DISTANCE_METERS + " >= ?",
+                    query.getMinDistanceMeters());
+        }
+        if (query.getMaxDistanceMeters() >= 0) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_DISTANCE_METERS + " <= ?",
+                    query.getMaxDistanceMeters());
+        }
+        if (query.getMinDurationMillis() >= 0) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_DURATION_MILLIS + " >= ?",
+                    query.getMinDurationMillis());
+        }
+        if (query.getMaxDurationMillis() >= 0) {
+            appendCondition(selection, selectionArgs, COLUMN_RUN_DURATION_MILLIS + " <= ?",
+                    query.getMaxDurationMillis());
+        }
+
+        String sortColumn = RUN_SORT_COLUMNS[query.getSortBy()];
+        String direction = query.isDescending() ? " desc" : " asc";
+        Run after = query.getAfter();
+        if (after != null) {
+            // Continue right after the last run of the previous page (ties are broken by ID).
+            // The first condition alone bounds the index range; the second skips the ties
+            // already returned.
+            String op = query.isDescending() ? " < ?" : " > ?";
+            Object afterKey = getSortKey(after, query.getSortBy());
+            appendCondition(selection, selectionArgs,
+                    sortColumn + (query.isDescending() ? " <= ?" : " >= ?"), afterKey);
+            appendCondition(selection, selectionArgs,
+                    "(" + sortColumn + op + " or " + COLUMN_RUN_ID + op + ")", afterKey);
+            selectionArgs.add(String.valueOf(after.getId()));
+        }
+
+        return SQLiteQueryBuilder.buildQueryString(false, TABLE_RUN,
+                RUN_SUMMARY_COLUMNS,
+                selection.length() > 0 ? selection.toString() : null,
+                null, // Group by
+                null, // Having
+                sortColumn + direction + ", " + COLUMN_RUN_ID + direction,
+                query.getPageSize() > 0 ? String.valueOf(query.getPageSize()) : null);
+    }
+
+    private static void appendCondition(StringBuilder selection, List<String> selectionArgs,
+            String condition, Object arg) {
+        if (selection.length() > 0) {
+            selection.append(" and ");
+        }
+        selection.append(condition);
+        selectionArgs.add(String.valueOf(arg));
+    }
+
+    private static Object getSortKey(Run run, int sortBy) {
+        switch (sortBy) {
+        case RunQuery.SORT_BY_DISTANCE:
+            return run.getDistanceMeters();
+        case RunQuery.SORT_BY_DURATION:
+            return run.getDurationMillis();
+        default:
+            return run.getStartDate().getTime();
+        }
+    }
+
     /**
      * Gets a cursor for the run with the given ID in the database.
      *
@@ -109,14 +694,9 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
      * @return a cursor for the run with the given ID in the database
      */
     public RunCursor queryRun(long id) {
-        Cursor wrapped = getReadableDatabase().query(TABLE_RUN,
-                null, // All columns
-                COLUMN_RUN_ID + " = ?", // Look for a run ID.
-                new String[] { String.valueOf(id) }, // With this value
-                null, // Group by
-                null, // Order by
-                null, // Having
-                "1"); // Limit = 1 row
+        // Equivalent to "select * from run where _id = ? limit 1".
+        Cursor wrapped = getReadableDatabase().rawQuery(SQL_QUERY_RUN,
+                new String[] { String.valueOf(id) });
         return new RunCursor(wrapped);
     }
 
@@ -127,17 +707,380 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
      * @return the last location associated with the given run
      */
     public LocationCursor queryLastLocationForRun(long runId) {
-        Cursor wrapped = getReadableDatabase().query(TABLE_LOCATION,
+        // Equivalent to "select * from location where run_id = ? order by timestamp desc limit 1".
+        Cursor wrapped = getReadableDatabase().rawQuery(SQL_QUERY_LAST_LOCATION_FOR_RUN,
+                new String[]{ String.valueOf(runId) });
+        return new LocationCursor(wrapped);
+    }
+
+    /**
+     * Explains how SQLite runs {@link #queryRuns()}, {@link #queryRun(long)} and
+     * {@link #queryLastLocationForRun(long)}.
+     *
+     * @return the steps of each query's plan, as reported by "explain query plan", keyed by the
+     *         name of the query method
+     */
+    public Map<String, List<String>> explainQueryPlans() {
+        String[] idArgs = new String[] { "1" };
+        Map<String, List<String>> plans = new LinkedHashMap<String, List<String>>();
+        plans.put("queryRuns()", explainQueryPlan(SQL_QUERY_RUNS, null));
+        plans.put("queryRun()", explainQueryPlan(SQL_QUERY_RUN, idArgs));
+        plans.put("queryLastLocationForRun()",
+                explainQueryPlan(SQL_QUERY_LAST_LOCATION_FOR_RUN, idArgs));
+        return plans;
+    }
+
+    /**
+     * Explains how SQLite runs {@link #queryRuns(RunQuery)} for the given query.
+     *
+     * @param query the runs to query
+     * @return the steps of the query's plan, as reported by "explain query plan"
+     */
+    public List<String> explainQueryPlan(RunQuery query) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildRunsQuery(query, selectionArgs);
+        return explainQueryPlan(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+    }
+
+    private List<String> explainQueryPlan(String sql, String[] selectionArgs) {
+        Cursor cursor = getReadableDatabase().rawQuery("explain query plan " + sql,
+                selectionArgs);
+        try {
+            // The step's description is the last column, whatever the SQLite version.
+            List<String> steps = new ArrayList<String>();
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(cursor.getColumnCount() - 1));
+            }
+            return steps;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gets the highest ID of any run.
+     *
+     * @return the highest run ID, or {@code 0} if there are no runs
+     */
+    public long queryLastRunId() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "select coalesce(max(_id), 0) from run", null);
+    }
+
+    /**
+     * Gets a cursor for all of the locations associated with the given run, oldest first.
+     *
+     * @param runId the ID of the run to query
+     * @return the locations associated with the given run, in time order
+     */
+    public LocationCursor queryLocationsForRun(long runId) {
+        return queryLocationsForRun(getReadableDatabase(), runId);
+    }
+
+    private static LocationCursor queryLocationsForRun(SQLiteDatabase db, long runId) {
+        Cursor wrapped = db.query(TABLE_LOCATION,
                 null, // All columns
                 COLUMN_LOCATION_RUN_ID + " = ?", // Limit to the given run
                 new String[]{ String.valueOf(runId) },
                 null, // Group by
                 null, // Having
-                COLUMN_LOCATION_TIMESTAMP + " desc", // Order by latest first
-                "1"); // Limit = 1 row
+                COLUMN_LOCATION_TIMESTAMP + " asc"); // Order by oldest first
         return new LocationCursor(wrapped);
     }
 
+    /**
+     * Gets the total length of the pauses of the given run.
+     *
+     * @param runId the ID of the run to query
+     * @return the total length of the run's pauses (in milliseconds)
+     */
+    public long queryPausedMillis(long runId) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "select total(end_timestamp - start_timestamp) from pause where run_id = ?",
+                new String[] { String.valueOf(runId) });
+    }
+
+    /**
+     * Reads the locations of the given run into a {@link Track}.
+     *
+     * @param runId the ID of the run to read
+     * @return the track of the given run (empty if the run has no locations)
+     */
+    public Track queryTrack(long runId) {
+        Cursor cursor = getReadableDatabase().query(TABLE_LOCATION,
+                new String[] { COLUMN_LOCATION_TIMESTAMP, COLUMN_LOCATION_LATITUDE,
+                        COLUMN_LOCATION_LONGITUDE },
+                COLUMN_LOCATION_RUN_ID + " = ?", // Limit to the given run
+                new String[]{ String.valueOf(runId) },
+                null, // Group by
+                null, // Having
+                COLUMN_LOCATION_TIMESTAMP + " asc"); // Order by oldest first
+        try {
+            int size = cursor.getCount();
+            long[] timestamps = new long[size];
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                timestamps[i] = cursor.getLong(0);
+                latitudes[i] = cursor.getDouble(1);
+                longitudes[i] = cursor.getDouble(2);
+            }
+            return new Track(runId, size, timestamps, latitudes, longitudes);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gets a cursor for the fastest efforts over the given distance, across all runs, fastest
+     * first.
+     *
+     * @param targetMeters the distance of the efforts (one of {@link BestEffort#TARGET_METERS})
+     * @param limit the maximum number of efforts to return
+     * @return the fastest efforts over the given distance
+     */
+    public BestEffortCursor queryBestEfforts(int targetMeters, int limit) {
+        Cursor wrapped = getReadableDatabase().query(TABLE_BEST_EFFORT,
+                null, // All columns
+                COLUMN_BEST_EFFORT_TARGET_METERS + " = ?",
+                new String[]{ String.valueOf(targetMeters) },
+                null, // Group by
+                null, // Having
+                COLUMN_BEST_EFFORT_ELAPSED_MILLIS + " asc", // Order by fastest first
+                String.valueOf(limit));
+        return new BestEffortCursor(wrapped);
+    }
+
+    /**
+     * Gets a cursor for the best efforts within the given run, shortest distance first.
+     *
+     * @param runId the ID of the run to query
+     * @return the best efforts of the given run
+     */
+    public BestEffortCursor queryBestEffortsForRun(long runId) {
+        Cursor wrapped = getReadableDatabase().query(TABLE_BEST_EFFORT,
+                null, // All columns
+                COLUMN_BEST_EFFORT_RUN_ID + " = ?",
+                new String[]{ String.valueOf(runId) },
+                null, // Group by
+                null, // Having
+                COLUMN_BEST_EFFORT_TARGET_METERS + " asc"); // Order by shortest distance first
+        return new BestEffortCursor(wrapped);
+    }
+
+    /**
+     * Gets a cursor for the splits of the given unit associated with the given run, in order.
+     *
+     * @param runId the ID of the run to query
+     * @param unit {@link Split#UNIT_KILOMETER} or {@link Split#UNIT_MILE}
+     * @return the splits of the given run
+     */
+    public SplitCursor querySplitsForRun(long runId, int unit) {
+        Cursor wrapped = getReadableDatabase().query(TABLE_SPLIT,
+                null, // All columns
+                COLUMN_SPLIT_RUN_ID + " = ? and " + COLUMN_SPLIT_UNIT + " = ?",
+                new String[]{ String.valueOf(runId), String.valueOf(unit) },
+                null, // Group by
+                null, // Having
+                COLUMN_SPLIT_INDEX + " asc"); // Order by first split first
+        return new SplitCursor(wrapped);
+    }
+
+    /**
+     * Gets a cursor for the pauses of the given run, in order.
+     *
+     * @param runId the ID of the run to query
+     * @return the pauses of the given run
+     */
+    public PauseCursor queryPausesForRun(long runId) {
+        Cursor wrapped = getReadableDatabase().query(TABLE_PAUSE,
+                null, // All columns
+                COLUMN_PAUSE_RUN_ID + " = ?",
+                new String[]{ String.valueOf(runId) },
+                null, // Group by
+                null, // Having
+                COLUMN_PAUSE_START_TIMESTAMP + " asc"); // Order by first pause first
+        return new PauseCursor(wrapped);
+    }
+
+    /**
+     * Forgets the progress of every {@link RecomputeJob}, so that each recomputes every run the
+     * next time it runs (e.g. after runs have been restored with IDs below a job's checkpoint).
+     * Jobs marked as having nothing to compute, such as the {@link SplitBackfillJob} once splits
+     * are tracked, stay so.
+     */
+    public void clearRecomputeCheckpoints() {
+        getWritableDatabase().delete(TABLE_RECOMPUTE_CHECKPOINT,
+                COLUMN_RECOMPUTE_CHECKPOINT_LAST_RUN_ID + " < ?",
+                new String[] { String.valueOf(Long.MAX_VALUE) });
+    }
+
+    /**
+     * Starts bulk-inserting runs, along with their locations, splits and pauses, keeping the
+     * runs' original IDs where they are free (e.g. to restore them from a snapshot).
+     *
+     * @return an inserter, which must be closed once done
+     */
+    public BulkInserter beginBulkInsert() {
+        return new BulkInserter(getWritableDatabase());
+    }
+
+    /**
+     * Inserts whole runs through precompiled statements, in batched transactions. Nothing
+     * inserted is visible to other connections until {@link #commit()} or
+     * {@link #close(boolean)} is called, and nothing is kept if the process dies before that.
+     */
+    public static class BulkInserter {
+        private final SQLiteDatabase mDb;
+        private final SQLiteStatement mRunExists;
+        private final SQLiteStatement mRunIdTaken;
+        private final SQLiteStatement mInsertRun;
+        private final SQLiteStatement mInsertLocation;
+        private final SQLiteStatement mInsertSplit;
+        private final SQLiteStatement mInsertPause;
+        private int mPendingRows;
+
+        private BulkInserter(SQLiteDatabase db) {
+            mDb = db;
+            mRunExists = db.compileStatement("select count(*) from run where start_date = ?");
+            mRunIdTaken = db.compileStatement("select count(*) from run where _id = ?");
+            mInsertRun = db.compileStatement("insert into run (_id, start_date," +
+                    " distance_meters, duration_millis, moving_millis) values (?, ?, ?, ?, ?)");
+            mInsertLocation = db.compileStatement("insert into location (timestamp, latitude," +
+                    " longitude, altitude, provider, run_id) values (?, ?, ?, ?, ?, ?)");
+            mInsertSplit = db.compileStatement("insert or ignore into split (run_id, unit," +
+                    " split_index, elapsed_millis, end_timestamp) values (?, ?, ?, ?, ?)");
+            mInsertPause = db.compileStatement("insert into pause (run_id, start_timestamp," +
+                    " end_timestamp) values (?, ?, ?)");
+            mDb.beginTransaction();
+        }
+
+        /**
+         * Gets the number of rows inserted since the last commit.
+         *
+         * @return the number of uncommitted rows
+         */
+        public int getPendingRowCount() {
+            return mPendingRows;
+        }
+
+        /**
+         * Inserts the given run, with its summary and start date, unless a run with the same
+         * start date already exists (runs are started at most once per millisecond, so that is
+         * the same run). The run keeps its ID if no other run has it, and is given a new one
+         * otherwise (e.g. when restoring into a database that already has runs of its own).
+         *
+         * @param run the run to insert
+         * @return the ID of the inserted run, with which to insert its locations, splits and
+         *         pauses; or {@code -1} if the run already existed
+         */
+        public long insertRun(Run run) {
+            mRunExists.bindLong(1, run.getStartDate().getTime());
+            if (mRunExists.simpleQueryForLong() > 0) {
+                return -1;
+            }
+            mRunIdTaken.bindLong(1, run.getId());
+            if (mRunIdTaken.simpleQueryForLong() > 0) {
+                mInsertRun.bindNull(1);
+            } else {
+                mInsertRun.bindLong(1, run.getId());
+            }
+            mInsertRun.bindLong(2, run.getStartDate().getTime());
+            mInsertRun.bindDouble(3, run.getDistanceMeters());
+            mInsertRun.bindLong(4, run.getDurationMillis());
+            mInsertRun.bindLong(5, run.getMovingMillis());
+            long runId = mInsertRun.executeInsert();
+            mPendingRows++;
+            return runId;
+        }
+
+        /**
+         * Inserts a location of the given run.
+         *
+         * @param runId the ID of the run associated with the location
+         * @param timestamp the time of the location (in milliseconds since the epoch)
+         * @param latitude the latitude of the location (in degrees)
+         * @param longitude the longitude of the location (in degrees)
+         * @param altitude the altitude of the location (in meters)
+         * @param provider the provider of the location, or {@code null} if unknown
+         */
+        public void insertLocation(long runId, long timestamp, double latitude, double longitude,
+                double altitude, String provider) {
+            mInsertLocation.bindLong(1, timestamp);
+            mInsertLocation.bindDouble(2, latitude);
+            mInsertLocation.bindDouble(3, longitude);
+            mInsertLocation.bindDouble(4, altitude);
+            if (provider != null) {
+                mInsertLocation.bindString(5, provider);
+            } else {
+                mInsertLocation.bindNull(5);
+            }
+            mInsertLocation.bindLong(6, runId);
+            mInsertLocation.executeInsert();
+            mPendingRows++;
+        }
+
+        /**
+         * Inserts the given split. A split that already exists is ignored.
+         *
+         * @param split the split to insert
+         */
+        public void insertSplit(Split split) {
+            mInsertSplit.bindLong(1, split.getRunId());
+            mInsertSplit.bindLong(2, split.getUnit());
+            mInsertSplit.bindLong(3, split.getIndex());
+            mInsertSplit.bindLong(4, split.getElapsedMillis());
+            mInsertSplit.bindLong(5, split.getEndTimestamp());
+            mInsertSplit.executeInsert();
+            mPendingRows++;
+        }
+
+        /**
+         * Inserts the given pause.
+         *
+         * @param pause the pause to insert
+         */
+        public void insertPause(Pause pause) {
+            mInsertPause.bindLong(1, pause.getRunId());
+            mInsertPause.bindLong(2, pause.getStartTimestamp());
+            mInsertPause.bindLong(3, pause.getEndTimestamp());
+            mInsertPause.executeInsert();
+            mPendingRows++;
+        }
+
+        /**
+         * Commits the rows inserted so far, and starts a new transaction for the rows to come.
+         */
+        public void commit() {
+            mDb.setTransactionSuccessful();
+            mDb.endTransaction();
+            mDb.beginTransaction();
+            mPendingRows = 0;
+        }
+
+        /**
+         * Finishes bulk-inserting. The rows inserted since the last commit are committed if
+         * {@code successful} is {@code true}, and rolled back otherwise.
+         *
+         * @param successful whether to commit the remaining rows
+         */
+        public void close(boolean successful) {
+            try {
+                if (successful) {
+                    mDb.setTransactionSuccessful();
+                }
+                mDb.endTransaction();
+            } finally {
+                mRunExists.close();
+                mRunIdTaken.close();
+                mInsertRun.close();
+                mInsertLocation.close();
+                mInsertSplit.close();
+                mInsertPause.close();
+            }
+        }
+    }
+
     /**
      * A convenience class to wrap a cursor that returns rows from the "run" table. The
      * {@link #getRun()} method will give you a Run instance representing the current row.
@@ -163,6 +1106,9 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
             Run run = new Run();
             run.setId(getLong(getColumnIndex(COLUMN_RUN_ID)));
             run.setStartDate(new Date(getLong(getColumnIndex(COLUMN_RUN_START_DATE))));
+            run.setDistanceMeters(getDouble(getColumnIndex(COLUMN_RUN_DISTANCE_METERS)));
+            run.setDurationMillis(getLong(getColumnIndex(COLUMN_RUN_DURATION_MILLIS)));
+            run.setMovingMillis(getLong(getColumnIndex(COLUMN_RUN_MOVING_MILLIS)));
             return run;
         }
     }
@@ -202,4 +1148,95 @@ public class RunDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * A convenience class to wrap a cursor that returns rows from the "split" table. The
+     * {@link #getSplit()} method will give you a Split instance representing the current row.
+     */
+    public static class SplitCursor extends CursorWrapper {
+
+        /**
+         * Creates a {@code SplitCursor} wrapping the given cursor.
+         *
+         * @param c the cursor to wrap
+         */
+        public SplitCursor(Cursor c) {
+            super(c);
+        }
+
+        /**
+         * Returns a Split object configured for the current row, or null if the current row is
+         * invalid.
+         */
+        public Split getSplit() {
+            if (isBeforeFirst() || isAfterLast()) {
+                return null;
+            }
+            return new Split(getLong(getColumnIndex(COLUMN_SPLIT_RUN_ID)),
+                    getInt(getColumnIndex(COLUMN_SPLIT_UNIT)),
+                    getInt(getColumnIndex(COLUMN_SPLIT_INDEX)),
+                    getLong(getColumnIndex(COLUMN_SPLIT_ELAPSED_MILLIS)),
+                    getLong(getColumnIndex(COLUMN_SPLIT_END_TIMESTAMP)));
+        }
+    }
+
+    /**
+     * A convenience class to wrap a cursor that returns rows from the "pause" table. The
+     * {@link #getPause()} method will give you a Pause instance representing the current row.
+     */
+    public static class PauseCursor extends CursorWrapper {
+
+        /**
+         * Creates a {@code PauseCursor} wrapping the given cursor.
+         *
+         * @param c the cursor to wrap
+         */
+        public PauseCursor(Cursor c) {
+            super(c);
+        }
+
+        /**
+         * Returns a Pause object configured for the current row, or null if the current row is
+         * invalid.
+         */
+        public Pause getPause() {
+            if (isBeforeFirst() || isAfterLast()) {
+                return null;
+            }
+            return new Pause(getLong(getColumnIndex(COLUMN_PAUSE_RUN_ID)),
+                    getLong(getColumnIndex(COLUMN_PAUSE_START_TIMESTAMP)),
+                    getLong(getColumnIndex(COLUMN_PAUSE_END_TIMESTAMP)));
+        }
+    }
+
+    /**
+     * A convenience class to wrap a cursor that returns rows from the "best_effort" table. The
+     * {@link #getBestEffort()} method will give you a BestEffort instance representing the
+     * current row.
+     */
+    public static class BestEffortCursor extends CursorWrapper {
+
+        /**
+         * Creates a {@code BestEffortCursor} wrapping the given cursor.
+         *
+         * @param c the cursor to wrap
+         */
+        public BestEffortCursor(Cursor c) {
+            super(c);
+        }
+
+        /**
+         * Returns a BestEffort object configured for the current row, or null if the current row
+         * is invalid.
+         */
+        public BestEffort getBestEffort() {
+            if (isBeforeFirst() || isAfterLast()) {
+                return null;
+            }
+            return new BestEffort(getLong(getColumnIndex(COLUMN_BEST_EFFORT_RUN_ID)),
+                    getInt(getColumnIndex(COLUMN_BEST_EFFORT_TARGET_METERS)),
+                    getLong(getColumnIndex(COLUMN_BEST_EFFORT_ELAPSED_MILLIS)),
+                    getLong(getColumnIndex(COLUMN_BEST_EFFORT_START_TIMESTAMP)));
+        }
+    }
+
 }
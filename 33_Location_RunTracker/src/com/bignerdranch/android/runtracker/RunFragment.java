@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
@@ -23,15 +24,18 @@ import android.widget.Toast;
 public class RunFragment extends Fragment {
     private static final String TAG = "RunFragment";
     private static final String ARG_RUN_ID = "RUN_ID";
+    private static final String ARG_GHOST_RUN_ID = "GHOST_RUN_ID";
 
     private BroadcastReceiver mLocationReceiver = new LocationReceiver() {
 
         @Override
-        protected void onLocationReceived(Context context, Location loc) {
-            if (!mRunManager.isTrackingRun(mRun)) {
+        protected void onLocationReceived(Context context, long runId, Location loc) {
+            if (mRunManager == null || !mRunManager.isTrackingRun(mRun)
+                    || (runId != -1 && runId != mRun.getId())) {
                 return;
             }
             mLastLocation = loc;
+            updateProgress();
             if (isVisible()) {
                 updateUI();
             }
@@ -49,10 +53,16 @@ public class RunFragment extends Fragment {
 
     private Run mRun;
     private Location mLastLocation;
+    private long mMovingMillis;
+
+    private GhostIndex mGhost;
+    private long mGhostDifferenceMillis;
+    private boolean mGhostFinished;
 
     private Button mStartButton, mStopButton;
     private TextView mStartedTextView, mLatitudeTextView,
-        mLongitudeTextView, mAltitudeTextView, mDurationTextView;
+        mLongitudeTextView, mAltitudeTextView, mDurationTextView, mGhostTextView;
+    private View mGhostRow;
 
     /**
      * Convenience method for creating a new {@code RunFragment} instance with the given run ID.
@@ -61,8 +71,21 @@ public class RunFragment extends Fragment {
      * @return a {@code RunFragment} with the given run ID
      */
     public static RunFragment newInstance(long runId) {
+        return newInstance(runId, -1);
+    }
+
+    /**
+     * Convenience method for creating a new {@code RunFragment} instance with the given run ID,
+     * that races the run against the previous run with the given ID.
+     *
+     * @param runId the ID of the run for the new {@code RunFragment}, or {@code -1} for a new run
+     * @param ghostRunId the ID of the previous run to race against, or {@code -1} for none
+     * @return a {@code RunFragment} with the given run ID and ghost run ID
+     */
+    public static RunFragment newInstance(long runId, long ghostRunId) {
         Bundle args = new Bundle();
         args.putLong(ARG_RUN_ID, runId);
+        args.putLong(ARG_GHOST_RUN_ID, ghostRunId);
         RunFragment rf = new RunFragment();
         rf.setArguments(args);
         return rf;
@@ -72,16 +95,32 @@ public class RunFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
-        mRunManager = RunManager.get(getActivity());
-        // Check for a Run ID as an argument, and find the run.
-        Bundle args = getArguments();
-        if (args != null) {
-            long runId = args.getLong(ARG_RUN_ID, -1);
-            if (runId != -1) {
-                mRun = mRunManager.getRun(runId);
-                mLastLocation = mRunManager.getLastLocationForRun(runId);
+        // Wait for the database to be opened in the background rather than blocking here.
+        RunManager.whenReady(getActivity(), new RunManager.OnReadyListener() {
+            @Override
+            public void onRunManagerReady(RunManager runManager) {
+                mRunManager = runManager;
+                // Check for a Run ID as an argument, and find the run.
+                Bundle args = getArguments();
+                if (args != null) {
+                    long runId = args.getLong(ARG_RUN_ID, -1);
+                    if (runId != -1) {
+                        mRun = mRunManager.getRun(runId);
+                        mLastLocation = mRunManager.getLastLocationForRun(runId);
+                        if (mRun != null) {
+                            mMovingMillis = mRun.getMovingMillis();
+                        }
+                    }
+                    long ghostRunId = args.getLong(ARG_GHOST_RUN_ID, -1);
+                    if (ghostRunId != -1) {
+                        new LoadGhostTask().execute(ghostRunId);
+                    }
+                }
+                if (mStartButton != null && isAdded()) {
+                    onViewAndRunManagerReady();
+                }
             }
-        }
+        });
     }
 
     @Override
@@ -94,6 +133,8 @@ public class RunFragment extends Fragment {
         mLongitudeTextView = (TextView)view.findViewById(R.id.run_longitudeTextView);
         mAltitudeTextView = (TextView)view.findViewById(R.id.run_altitudeTextView);
         mDurationTextView = (TextView)view.findViewById(R.id.run_durationTextView);
+        mGhostTextView = (TextView)view.findViewById(R.id.run_ghostTextView);
+        mGhostRow = view.findViewById(R.id.run_ghostRow);
 
         mStartButton = (Button)view.findViewById(R.id.run_startButton);
         mStartButton.setOnClickListener(new View.OnClickListener() {
@@ -101,6 +142,7 @@ public class RunFragment extends Fragment {
             public void onClick(View v) {
                 if (mRun == null) {
                     mRun = mRunManager.startNewRun();
+                    mMovingMillis = 0;
                 } else {
                     mRunManager.startTrackingRun(mRun);
                 }
@@ -117,14 +159,22 @@ public class RunFragment extends Fragment {
             }
         });
 
+        if (mRunManager != null) {
+            onViewAndRunManagerReady();
+        } else {
+            updateUI();
+        }
+
+        return view;
+    }
+
+    private void onViewAndRunManagerReady() {
         // If this is a new run, stop any previous runs (thereby allowing this new run to be
         // startable).
         if (mRun == null) {
             mRunManager.stopRun();
         }
         updateUI();
-
-        return view;
     }
 
     @Override
@@ -141,6 +191,12 @@ public class RunFragment extends Fragment {
     }
 
     private void updateUI() {
+        if (mRunManager == null) {
+            // Still loading.
+            mStartButton.setEnabled(false);
+            mStopButton.setEnabled(false);
+            return;
+        }
         boolean started = mRunManager.isTrackingRun();
         boolean trackingThisRun = mRunManager.isTrackingRun(mRun);
 
@@ -148,17 +204,73 @@ public class RunFragment extends Fragment {
             mStartedTextView.setText(mRun.getStartDate().toString());
         }
 
-        int durationSeconds = 0;
         if (mLastLocation != null) {
-            durationSeconds = mRun.getDurationSeconds(mLastLocation.getTime());
             mLatitudeTextView.setText(Double.toString(mLastLocation.getLatitude()));
             mLongitudeTextView.setText(Double.toString(mLastLocation.getLongitude()));
             mAltitudeTextView.setText(Double.toString(mLastLocation.getAltitude()));
         }
-        mDurationTextView.setText(Run.formatDuration(durationSeconds));
+        // The moving time leaves out the time spent paused.
+        mDurationTextView.setText(Run.formatDuration((int)(mMovingMillis / 1000)));
+
+        if (mGhost != null) {
+            mGhostRow.setVisibility(View.VISIBLE);
+            if (mGhostFinished) {
+                mGhostTextView.setText(R.string.ghost_finished);
+            } else {
+                String difference = Run.formatDuration(
+                        (int)(Math.abs(mGhostDifferenceMillis) / 1000));
+                mGhostTextView.setText(mGhostDifferenceMillis >= 0
+                        ? getString(R.string.ghost_ahead, difference)
+                        : getString(R.string.ghost_behind, difference));
+            }
+        }
 
         mStartButton.setEnabled(!started);
         mStopButton.setEnabled(started && trackingThisRun);
     }
 
+    private void updateProgress() {
+        if (mRun == null) {
+            return;
+        }
+        // The progress recorded by the run's session includes the locations received while this
+        // fragment was stopped.
+        TrackingSession.Progress progress = mRunManager.getProgress(mRun.getId());
+        if (progress == null) {
+            return;
+        }
+        mMovingMillis = progress.getMovingMillis(mRun.getStartDate().getTime());
+        if (mGhost == null) {
+            return;
+        }
+        // The distance recorded by the session is measured just like the ghost's, and counts no
+        // pauses.
+        // Compare with when the ghost got this far: positive means we got here sooner.
+        long ghostMillis = mGhost.getElapsedMillisAt(progress.getDistanceMeters());
+        mGhostFinished = ghostMillis == -1;
+        if (!mGhostFinished) {
+            mGhostDifferenceMillis = ghostMillis
+                    - (progress.getTimestamp() - mRun.getStartDate().getTime());
+        }
+    }
+
+    /**
+     * Indexes the ghost run in the background, so that the race needs no database reads.
+     */
+    private class LoadGhostTask extends AsyncTask<Long, Void, GhostIndex> {
+
+        @Override
+        protected GhostIndex doInBackground(Long... params) {
+            return mRunManager.loadGhostIndex(params[0]);
+        }
+
+        @Override
+        protected void onPostExecute(GhostIndex ghost) {
+            mGhost = ghost;
+            if (mStartButton != null && isVisible()) {
+                updateUI();
+            }
+        }
+    }
+
 }
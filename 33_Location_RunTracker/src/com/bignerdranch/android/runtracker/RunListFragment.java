@@ -1,21 +1,32 @@
 package com.bignerdranch.android.runtracker;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.ListFragment;
 import android.support.v4.widget.CursorAdapter;
+import android.view.ContextMenu;
+import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
 
@@ -32,23 +43,43 @@ public class RunListFragment extends ListFragment {
     private static final int VIEW_CURRENT_RUN = 1;
 
     private RunCursor mCursor;
+    private boolean mDestroyed;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
 
-        // Query the list of runs.
-        mCursor = RunManager.get(getActivity()).queryRuns();
+        // Wait for the runs to be loaded in the background; the list shows a progress indicator
+        // until it has an adapter.
+        RunManager.whenReady(getActivity(), new RunManager.OnReadyListener() {
+            @Override
+            public void onRunManagerReady(RunManager runManager) {
+                if (mDestroyed) {
+                    return;
+                }
+                // Query the list of runs.
+                mCursor = runManager.takePrefetchedRuns();
 
-        // Create an adapter to point at this cursor.
-        RunCursorAdapter adapter = new RunCursorAdapter(getActivity(), mCursor);
-        setListAdapter(adapter);
+                // Create an adapter to point at this cursor.
+                RunCursorAdapter adapter = new RunCursorAdapter(getActivity(), mCursor);
+                setListAdapter(adapter);
+            }
+        });
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        registerForContextMenu(getListView());
     }
 
     @Override
     public void onDestroy() {
-        mCursor.close();
+        mDestroyed = true;
+        if (mCursor != null) {
+            mCursor.close();
+        }
         super.onDestroy();
     }
 
@@ -69,11 +100,67 @@ public class RunListFragment extends ListFragment {
             AlertDialog runStatusDialog = createRunStatusDialog();
             runStatusDialog.show();
             return true;
+        case R.id.menu_item_compact_database:
+            new CompactDatabaseTask(getActivity()).execute();
+            return true;
+        case R.id.menu_item_back_up_runs:
+            new BackUpRunsTask(getActivity()).execute();
+            return true;
+        case R.id.menu_item_restore_runs:
+            new RestoreRunsTask(getActivity()).execute();
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
+        getActivity().getMenuInflater().inflate(R.menu.run_list_item_context, menu);
+    }
+
+    @Override
+    public boolean onContextItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case R.id.menu_item_race_run:
+            // Start a new run, racing against the selected one.
+            AdapterContextMenuInfo info = (AdapterContextMenuInfo)item.getMenuInfo();
+            Intent i = new Intent(getActivity(), RunActivity.class);
+            i.putExtra(RunActivity.EXTRA_GHOST_RUN_ID, info.id);
+            startActivityForResult(i, REQUEST_NEW_RUN);
+            return true;
+        case R.id.menu_item_delete_run:
+            AdapterContextMenuInfo deleteInfo = (AdapterContextMenuInfo)item.getMenuInfo();
+            createDeleteRunDialog(deleteInfo.id).show();
+            return true;
+        default:
+            return super.onContextItemSelected(item);
+        }
+    }
+
+    private AlertDialog createDeleteRunDialog(final long runId) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.delete_run);
+        builder.setMessage(R.string.delete_run_dialog_text);
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                RunManager.get(getActivity()).deleteRun(runId,
+                        new RunManager.OnRunDeletedListener() {
+                            @Override
+                            public void onRunDeleted(long runId) {
+                                if (!mDestroyed && mCursor != null) {
+                                    mCursor.requery();
+                                    ((RunCursorAdapter) getListAdapter()).notifyDataSetChanged();
+                                }
+                            }
+                        });
+            }
+        });
+        return builder.create();
+    }
+
     private AlertDialog createRunStatusDialog() {
         FragmentActivity runListActivity = getActivity();
         AlertDialog.Builder builder = new AlertDialog.Builder(runListActivity);
@@ -98,7 +185,9 @@ public class RunListFragment extends ListFragment {
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (REQUEST_NEW_RUN == requestCode) {
+        if (mCursor == null) {
+            return;
+        } else if (REQUEST_NEW_RUN == requestCode) {
             mCursor.requery();
             ((RunCursorAdapter) getListAdapter()).notifyDataSetChanged();
         } else if (VIEW_CURRENT_RUN == requestCode) {
@@ -147,4 +236,131 @@ public class RunListFragment extends ListFragment {
             startDateTextView.setText(cellText);
         }
     }
+
+    private static class CompactDatabaseTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context mAppContext;
+        private final ProgressDialog mProgressDialog;
+
+        public CompactDatabaseTask(Context context) {
+            mAppContext = context.getApplicationContext();
+            // Compacting can block the database for minutes; keep the user from starting a run
+            // meanwhile.
+            mProgressDialog = new ProgressDialog(context);
+            mProgressDialog.setMessage(context.getString(R.string.compacting_database));
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setCancelable(false);
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            return RunManager.get(mAppContext).compactDatabase();
+        }
+
+        @Override
+        protected void onPostExecute(Boolean compacted) {
+            if (mProgressDialog.isShowing()) {
+                mProgressDialog.dismiss();
+            }
+            Toast.makeText(mAppContext, compacted ? R.string.database_compacted
+                    : R.string.database_not_compacted, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private static class BackUpRunsTask extends AsyncTask<Void, Void, File> {
+        private final Context mAppContext;
+        private final ProgressDialog mProgressDialog;
+        private IOException mError;
+
+        public BackUpRunsTask(Context context) {
+            mAppContext = context.getApplicationContext();
+            mProgressDialog = new ProgressDialog(context);
+            mProgressDialog.setMessage(context.getString(R.string.backing_up_runs));
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setCancelable(false);
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            try {
+                return RunManager.get(mAppContext).backUpRuns();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to back up the runs", e);
+                mError = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File backup) {
+            if (mProgressDialog.isShowing()) {
+                mProgressDialog.dismiss();
+            }
+            String message;
+            if (mError != null) {
+                message = mAppContext.getString(R.string.runs_not_backed_up, mError.getMessage());
+            } else if (backup == null) {
+                message = mAppContext.getString(R.string.no_runs_to_back_up);
+            } else {
+                message = mAppContext.getString(R.string.runs_backed_up, backup.getPath());
+            }
+            Toast.makeText(mAppContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    // Not static, since the list is requeried once the runs are restored.
+    private class RestoreRunsTask extends AsyncTask<Void, Void, Integer> {
+        private final Context mAppContext;
+        private final ProgressDialog mProgressDialog;
+        private IOException mError;
+
+        public RestoreRunsTask(Context context) {
+            mAppContext = context.getApplicationContext();
+            mProgressDialog = new ProgressDialog(context);
+            mProgressDialog.setMessage(context.getString(R.string.restoring_runs));
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setCancelable(false);
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            try {
+                return RunManager.get(mAppContext).restoreBackups();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to restore the runs", e);
+                mError = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer restoredCount) {
+            if (mProgressDialog.isShowing()) {
+                mProgressDialog.dismiss();
+            }
+            // Even a failed restore may have restored some runs.
+            if (!mDestroyed && mCursor != null) {
+                mCursor.requery();
+                ((RunCursorAdapter) getListAdapter()).notifyDataSetChanged();
+            }
+            String message = mError != null
+                    ? mAppContext.getString(R.string.runs_not_restored, mError.getMessage())
+                    : mAppContext.getString(R.string.runs_restored, restoredCount);
+            Toast.makeText(mAppContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
 }
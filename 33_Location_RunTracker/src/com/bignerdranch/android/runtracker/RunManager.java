@@ -1,19 +1,45 @@
 package com.bignerdranch.android.runtracker;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.BestEffortCursor;
 import com.bignerdranch.android.runtracker.RunDatabaseHelper.LocationCursor;
 import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.SplitCursor;
 
 /**
  * Singleton class that manages the communication with the {@link LocationManager} and details about
- * the current run.
+ * the current run. Besides the current run, any number of other runs may be tracked at once, each
+ * in a {@link TrackingSession} of its own.
  *
  * @author Bill Phillips
  * @author Brian Hardy
@@ -24,107 +50,490 @@ public class RunManager {
 
     private static final String PREFS_FILE = "runs";
     private static final String PREF_CURRENT_RUN_ID = "RunManager.currentRunId";
+    private static final String PREF_LAST_SNAPSHOT_RUN_ID = "RunManager.lastSnapshotRunId";
+    private static final String BACKUP_DIR = "backups";
+    private static final String BACKUP_PREFIX = "runs-";
+    private static final String BACKUP_SUFFIX = ".snapshot";
 
     public static final String ACTION_LOCATION = "com.bignerdranch.android.runtracker.ACTION_LOCATION";
+    public static final String EXTRA_RUN_ID = "com.bignerdranch.android.runtracker.RUN_ID";
 
     private static final String TEST_PROVIDER = "TEST_PROVIDER";
 
-    private static RunManager sRunManager;
+    private static final int DELETE_CHUNK_LOCATIONS = 1000;
+    private static final int RECLAIM_CHUNK_PAGES = 256;
+    // The last known location is only recorded if it is at most this old.
+    private static final long MAX_LAST_KNOWN_AGE_MILLIS = 60000;
+    // What is prefetched when warming up is dropped if it has not been taken within this long
+    // (e.g. when the process was started to record a location, and no list is shown).
+    private static final long PREFETCH_EXPIRY_MILLIS = 10000;
+
+    private static volatile RunManager sRunManager;
+    private static FutureTask<RunManager> sInitTask;
+    private static final ExecutorService sInitExecutor = Executors.newSingleThreadExecutor();
+
     private Context mAppContext;
-    private LocationManager mLocationManager;
+    private LocationSource mLocationSource;
     private RunDatabaseHelper mHelper;
     private SharedPreferences mPrefs;
-    private long mCurrentRunId;
+    private String mBackupDirName;
+    private final AtomicLong mCurrentRunId = new AtomicLong(-1);
+    private final ExecutorService mPrefsExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicReference<RunCursor> mPrefetchedRuns = new AtomicReference<RunCursor>();
+    private final AtomicReference<Run> mPrefetchedCurrentRun = new AtomicReference<Run>();
+    // Guards the transitions of the tracking state (the current run, the sessions, and their
+    // location updates), so that each happens as a whole; reads don't take it.
+    private final Object mTrackingLock = new Object();
+    private final ConcurrentMap<Long, TrackingSession> mSessions =
+            new ConcurrentHashMap<Long, TrackingSession>();
+    private final ExecutorService mIngestExecutor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // Runs the (re)computation of data derived from finished runs, one job at a time.
+    private final ExecutorService mDerivedDataExecutor = Executors.newSingleThreadExecutor();
+    private BestEffortEngine mBestEffortEngine;
+    private HeatmapEngine mHeatmapEngine;
+    private RunArchiver mArchiver;
+    private final Object mSnapshotLock = new Object();
 
     private RunManager(Context appContext) {
+        this(appContext, new RunDatabaseHelper(appContext), appContext.getFilesDir(), PREFS_FILE,
+                BACKUP_DIR, new SystemLocationSource(appContext));
+    }
+
+    /**
+     * Creates a {@code RunManager} of its own, separate from the singleton, e.g. to test it
+     * without touching the runs the user has recorded or the run being tracked. Its runs are kept
+     * in a database, its derived data in a directory, its current run in a shared preferences
+     * file, and its backups in a directory on external storage, all named after the given name,
+     * and its location updates come from the given source.
+     * It should be closed once done with.
+     *
+     * @param c the context to use
+     * @param name the name of the database, directory and preferences file to use
+     * @param locationSource the source of the location updates of the tracked runs
+     */
+    public RunManager(Context c, String name, LocationSource locationSource) {
+        this(c.getApplicationContext(), new RunDatabaseHelper(c, name + ".sqlite"),
+                c.getDir(name, Context.MODE_PRIVATE), name, name, locationSource);
+    }
+
+    private RunManager(Context appContext, RunDatabaseHelper helper, File filesDir,
+            String prefsName, String backupDirName, LocationSource locationSource) {
         mAppContext = appContext;
-        mLocationManager = (LocationManager)mAppContext.getSystemService(Context.LOCATION_SERVICE);
-        mHelper = new RunDatabaseHelper(mAppContext);
-        mPrefs = mAppContext.getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
-        mCurrentRunId = mPrefs.getLong(PREF_CURRENT_RUN_ID, -1);
+        mLocationSource = locationSource;
+        mHelper = helper;
+        mBestEffortEngine = new BestEffortEngine(mHelper);
+        mHeatmapEngine = new HeatmapEngine(mHelper, filesDir);
+        mArchiver = new RunArchiver(mHelper);
+        mPrefs = mAppContext.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+        mBackupDirName = backupDirName;
+        mCurrentRunId.set(mPrefs.getLong(PREF_CURRENT_RUN_ID, -1));
+    }
+
+    /**
+     * Closes a {@code RunManager} created with {@link #RunManager(Context, String, LocationSource)}
+     * once the work queued so far (writing locations, and updating derived data) has finished,
+     * and then closes its database. The singleton instance is never closed.
+     *
+     * @throws InterruptedException if interrupted while waiting for the queued work
+     */
+    public void close() throws InterruptedException {
+        mIngestExecutor.shutdown();
+        mIngestExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        // Runs whose last locations have just been written queue their derived data here.
+        mDerivedDataExecutor.shutdown();
+        mDerivedDataExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        mPrefsExecutor.shutdown();
+        mPrefsExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        mHelper.close();
     }
 
     /**
      * Gets the singleton {@code RunManager} instance. If no instance currently exists, creates a
-     * new {@link RunManager} instance for the given context.
+     * new {@link RunManager} instance for the given context, or waits for the one being created
+     * by {@link #warmUp(Context)}. May be called from any thread.
      *
      * @param c the context for the {@code RunManager}
      * @return the current {@code RunManager} instance
      */
     public static RunManager get(Context c) {
-        if (sRunManager == null) {
+        RunManager runManager = sRunManager;
+        if (runManager != null) {
+            return runManager;
+        }
+        Future<RunManager> init = warmUp(c);
+        try {
+            return init.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating the RunManager", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create the RunManager", e.getCause());
+        }
+    }
+
+    /**
+     * Starts creating the singleton {@code RunManager} instance in the background, if that has not
+     * already been started. Besides creating the instance, this opens the database (creating or
+     * upgrading it, if necessary) and prefetches the current run and the first page of runs, so
+     * that none of this has to happen on the UI thread. What is prefetched is kept for a few
+     * seconds, until it is taken or a run is added or deleted. This should be called as early as
+     * possible, e.g. when the application is created.
+     *
+     * @param c the context for the {@code RunManager}
+     * @return a future for the {@code RunManager} instance
+     */
+    public static synchronized Future<RunManager> warmUp(Context c) {
+        if (sInitTask == null) {
             // We use the application context to avoid leaking activities.
-            sRunManager = new RunManager(c.getApplicationContext());
+            final Context appContext = c.getApplicationContext();
+            sInitTask = new FutureTask<RunManager>(new Callable<RunManager>() {
+                @Override
+                public RunManager call() {
+                    RunManager runManager = new RunManager(appContext);
+                    runManager.prefetch();
+                    sRunManager = runManager;
+                    return runManager;
+                }
+            });
+            sInitExecutor.execute(sInitTask);
         }
-        return sRunManager;
+        return sInitTask;
     }
 
-    private PendingIntent getLocationPendingIntent(boolean shouldCreate) {
-        Intent broadcast = new Intent(ACTION_LOCATION);
-        int flags = shouldCreate ? 0 : PendingIntent.FLAG_NO_CREATE;
-        return PendingIntent.getBroadcast(mAppContext, 0, broadcast, flags);
+    /**
+     * Callback for {@link RunManager#whenReady(Context, OnReadyListener)}.
+     */
+    public interface OnReadyListener {
+
+        /**
+         * Called on the UI thread once the {@code RunManager} is ready to use.
+         *
+         * @param runManager the {@code RunManager} instance
+         */
+        void onRunManagerReady(RunManager runManager);
     }
 
     /**
-     * Request to start receiving location updates from the {@link LocationManager}.
+     * Calls the given listener on the UI thread once the singleton {@code RunManager} instance has
+     * been created and warmed up (see {@link #warmUp(Context)}), without blocking the caller.
+     *
+     * @param c the context for the {@code RunManager}
+     * @param listener the listener to call
      */
-    public void startLocationUpdates() {
-        String provider = LocationManager.GPS_PROVIDER;
-        // If we have the test provider and it's enabled, use it.
-        if (mLocationManager.getProvider(TEST_PROVIDER) != null &&
-                mLocationManager.isProviderEnabled(TEST_PROVIDER)) {
-            provider = TEST_PROVIDER;
+    public static void whenReady(Context c, final OnReadyListener listener) {
+        final Future<RunManager> init = warmUp(c);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        // The init executor is single-threaded, so this runs after initialization.
+        sInitExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final RunManager runManager;
+                try {
+                    runManager = init.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Failed to create the RunManager", e.getCause());
+                    return;
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onRunManagerReady(runManager);
+                    }
+                });
+            }
+        });
+    }
+
+    private void prefetch() {
+        long start = System.nanoTime();
+        // Opening the database runs onCreate()/onUpgrade() if needed.
+        mHelper.getWritableDatabase();
+        final Run currentRun = getRun(mCurrentRunId.get());
+        mPrefetchedCurrentRun.set(currentRun);
+        final RunCursor runs = mHelper.queryRuns();
+        // Counting the rows fills the cursor's first window.
+        runs.getCount();
+        mPrefetchedRuns.set(runs);
+        Log.d(TAG, "Warmed up in " + (System.nanoTime() - start) / 1000000 + " ms");
+        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                // Only drops what was prefetched above, if it is still there.
+                if (mPrefetchedRuns.compareAndSet(runs, null)) {
+                    runs.close();
+                }
+                mPrefetchedCurrentRun.compareAndSet(currentRun, null);
+            }
+        }, PREFETCH_EXPIRY_MILLIS);
+
+        // Each resumes from where it stopped, or only computes runs added since it last finished.
+        recompute(new SplitBackfillJob(mHelper));
+        computeAllBestEfforts();
+        if (!mHeatmapEngine.isBuilt()) {
+            buildHeatmap();
         }
-        Log.d(TAG, "Using provider " + provider);
+    }
+
+    private void computeAllBestEfforts() {
+        mDerivedDataExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mBestEffortEngine.updateAllRuns(Runtime.getRuntime().availableProcessors());
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while computing best efforts", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the given job over every run it has not yet computed, in the background, one job at a
+     * time.
+     *
+     * @param job the job to run
+     */
+    public void recompute(final RecomputeJob<?> job) {
+        mDerivedDataExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new Recomputer(mHelper).run(job, Runtime.getRuntime().availableProcessors());
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while running " + job.getName(), e);
+                }
+            }
+        });
+    }
+
+    private void buildHeatmap() {
+        mDerivedDataExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mHeatmapEngine.buildAll(Runtime.getRuntime().availableProcessors());
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to build the heatmap", e);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while building the heatmap", e);
+                }
+            }
+        });
+    }
 
-        // Get the last known location and broadcast it if we have one.
-        Location lastKnown = mLocationManager.getLastKnownLocation(provider);
-        if (lastKnown != null) {
-            // Reset the time to now.
-            lastKnown.setTime(System.currentTimeMillis());
-            broadcastLocation(lastKnown);
+    /**
+     * Loads the heatmap of every recorded location. Reads a file, so this should not be called
+     * on the UI thread.
+     *
+     * @return the heatmap, which is empty until it has first been built in the background
+     * @throws IOException if the heatmap could not be read
+     */
+    public Heatmap loadHeatmap() throws IOException {
+        return mHeatmapEngine.load();
+    }
+
+    /**
+     * Writes a snapshot of the recorded runs to the given stream (see {@link RunArchiver}). Runs
+     * still being tracked, and any started after them, are left for the next snapshot. Reads the
+     * whole database, so this should not be called on the UI thread.
+     * <p>
+     * Once the stream has been closed successfully (so that the snapshot is known to be stored),
+     * pass the returned ID to {@link #confirmSnapshot(long)}; until then, the next incremental
+     * snapshot writes the same runs again.
+     *
+     * @param out the stream to write to; flushed, but not closed
+     * @param incremental {@code true} to only write the runs added since the last confirmed
+     *        snapshot (not the locations added since then to runs that were resumed);
+     *        {@code false} to write every run
+     * @return the ID of the last run written, to confirm the snapshot with
+     * @throws IOException if the snapshot could not be written
+     */
+    public long writeSnapshot(OutputStream out, boolean incremental) throws IOException {
+        synchronized (mSnapshotLock) {
+            long afterRunId = incremental ? mPrefs.getLong(PREF_LAST_SNAPSHOT_RUN_ID, 0) : 0;
+            long beforeRunId = Long.MAX_VALUE;
+            for (long runId : mSessions.keySet()) {
+                beforeRunId = Math.min(beforeRunId, runId);
+            }
+            return mArchiver.writeSnapshot(out, afterRunId, beforeRunId);
         }
+    }
 
-        // Start updates from the location manager.
-        PendingIntent pi = getLocationPendingIntent(true);
-        mLocationManager.requestLocationUpdates(provider, 0, 0, pi);
+    /**
+     * Confirms that a snapshot written by {@link #writeSnapshot(OutputStream, boolean)} has been
+     * stored, so that the next incremental snapshot starts after the runs it holds.
+     *
+     * @param lastRunId the ID returned by {@code writeSnapshot()}
+     */
+    public void confirmSnapshot(long lastRunId) {
+        synchronized (mSnapshotLock) {
+            mPrefs.edit().putLong(PREF_LAST_SNAPSHOT_RUN_ID, lastRunId).commit();
+        }
     }
 
     /**
-     * Request to stop receiving location updates from the {@link LocationManager}.
+     * Restores the runs in a snapshot written by {@link #writeSnapshot(OutputStream, boolean)},
+     * skipping runs that already exist (matched by start date), and then rebuilds the data
+     * derived from runs in the background. Writes to the database, so this should not be called
+     * on the UI thread.
+     *
+     * @param in the stream to read the snapshot from; not closed
+     * @return the number of runs restored
+     * @throws IOException if the snapshot could not be read, or is damaged
+     */
+    public int restoreSnapshot(InputStream in) throws IOException {
+        try {
+            return mArchiver.restoreSnapshot(in);
+        } finally {
+            // Even a failed restore may have restored some runs, and restored runs may have IDs
+            // below the point that derived data was computed up to.
+            mHelper.clearRecomputeCheckpoints();
+            computeAllBestEfforts();
+            buildHeatmap();
+        }
+    }
+
+    /**
+     * Backs up the runs recorded since the last backup (every run, the first time) to a new
+     * snapshot file in the app's directory on external storage. The backup is only counted once
+     * the file has been written and synced, so a failed backup is retried in full next time.
+     * Reads the database, so this should not be called on the UI thread.
+     *
+     * @return the file the runs were backed up to, or {@code null} if there were no new runs
+     * @throws IOException if external storage is not available, or the file could not be written
+     */
+    public File backUpRuns() throws IOException {
+        synchronized (mSnapshotLock) {
+            long lastRunId = mPrefs.getLong(PREF_LAST_SNAPSHOT_RUN_ID, 0);
+            // Named by time, so that listing the backups in order restores the oldest first.
+            File file = new File(getBackupDir(),
+                    BACKUP_PREFIX + System.currentTimeMillis() + BACKUP_SUFFIX);
+            FileOutputStream out = new FileOutputStream(file);
+            long snapshotRunId;
+            boolean stored = false;
+            try {
+                try {
+                    snapshotRunId = writeSnapshot(out, true);
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                stored = snapshotRunId != lastRunId;
+            } finally {
+                if (!stored) {
+                    file.delete();
+                }
+            }
+            if (!stored) {
+                return null;
+            }
+            confirmSnapshot(snapshotRunId);
+            Log.d(TAG, "Backed up the runs after " + lastRunId + " to " + file);
+            return file;
+        }
+    }
+
+    /**
+     * Restores the runs in every backup written by {@link #backUpRuns()}, oldest first, skipping
+     * runs that already exist (see {@link #restoreSnapshot(InputStream)}). Writes to the
+     * database, so this should not be called on the UI thread.
+     *
+     * @return the number of runs restored
+     * @throws IOException if external storage is not available, or a backup could not be read
+     *         or is damaged; the runs restored before the failure are kept
+     */
+    public int restoreBackups() throws IOException {
+        File[] files = getBackupDir().listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        int restoredCount = 0;
+        for (File file : files) {
+            if (!file.getName().startsWith(BACKUP_PREFIX)
+                    || !file.getName().endsWith(BACKUP_SUFFIX)) {
+                continue;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                restoredCount += restoreSnapshot(in);
+            } finally {
+                in.close();
+            }
+        }
+        return restoredCount;
+    }
+
+    private File getBackupDir() throws IOException {
+        File dir = mAppContext.getExternalFilesDir(mBackupDirName);
+        if (dir == null) {
+            throw new IOException("External storage is not available");
+        }
+        return dir;
+    }
+
+    /**
+     * Request to start receiving location updates from the {@link LocationSource} for the
+     * current run.
+     */
+    public void startLocationUpdates() {
+        synchronized (mTrackingLock) {
+            startLocationUpdates(mCurrentRunId.get(), mLocationSource.getDefaultProvider());
+        }
+    }
+
+    private void startLocationUpdates(long runId, String provider) {
+        Log.d(TAG, "Using provider " + provider + " for run " + runId);
+        mLocationSource.start(runId, provider);
+    }
+
+    /**
+     * Request to stop receiving location updates from the {@link LocationSource} for the
+     * current run.
      */
     public void stopLocationUpdates() {
-        PendingIntent pi = getLocationPendingIntent(false);
-        if (pi != null) {
-            mLocationManager.removeUpdates(pi);
-            pi.cancel();
+        synchronized (mTrackingLock) {
+            stopLocationUpdates(mCurrentRunId.get());
         }
     }
 
+    private void stopLocationUpdates(long runId) {
+        mLocationSource.stop(runId);
+    }
+
     /**
-     * Determine whether a {@link Run} is currently being tracked.
+     * Determine whether the current {@link Run} is being tracked.
      *
-     * @return {@code true}, if a run is currently being tracked; otherwise {@code false}
+     * @return {@code true}, if the current run is being tracked; otherwise {@code false}
      */
     public boolean isTrackingRun() {
-        return getLocationPendingIntent(false) != null;
+        long runId = mCurrentRunId.get();
+        return runId != -1 && mLocationSource.isStarted(runId);
     }
 
     /**
-     * Determine whether the given {@link Run} is being currently tracked by the {@code RunManager}.
+     * Determine whether the given {@link Run} is the current run of the {@code RunManager}.
      *
      * @param run the run to check
-     * @return {@code true} if the given {@link Run} is currently being tracked; otherwise
-     *         {@code false}
+     * @return {@code true} if the given {@link Run} is the current run; otherwise {@code false}
      */
     public boolean isTrackingRun(Run run) {
-        return run != null && run.getId() == mCurrentRunId;
+        return run != null && run.getId() == mCurrentRunId.get();
     }
 
-    private void broadcastLocation(Location location) {
-        Intent broadcast = new Intent(ACTION_LOCATION);
-        broadcast.putExtra(LocationManager.KEY_LOCATION_CHANGED, location);
-        mAppContext.sendBroadcast(broadcast);
+    /**
+     * Determine whether the run with the given ID is being tracked by any session, whether or not
+     * it is the current run.
+     *
+     * @param runId the ID of the run to check
+     * @return {@code true} if the run is being tracked; otherwise {@code false}
+     */
+    public boolean isTrackingSession(long runId) {
+        return mSessions.containsKey(runId) || mLocationSource.isStarted(runId);
     }
 
     /**
@@ -147,25 +556,276 @@ public class RunManager {
      * @param run the run to track
      */
     public void startTrackingRun(Run run) {
-        mCurrentRunId = run.getId(); // Keep the ID.
+        synchronized (mTrackingLock) {
+            long previousRunId = mCurrentRunId.getAndSet(run.getId()); // Keep the ID.
+            if (previousRunId != -1 && previousRunId != run.getId()) {
+                // Tracking a new current run replaces the previous one.
+                stopSession(previousRunId);
+            }
 
-        // Store the ID in shared preferences.
-        mPrefs.edit().putLong(PREF_CURRENT_RUN_ID, mCurrentRunId).commit();
+            // Store the ID in shared preferences.
+            persistCurrentRunId();
 
-        // Start location updates.
-        startLocationUpdates();
+            // Start location updates.
+            startSession(run.getId(), mLocationSource.getDefaultProvider());
+        }
+    }
+
+    /**
+     * Begin tracking the given run in a session of its own, alongside the current run and any
+     * other sessions. Locations from the given provider are recorded as part of the run.
+     *
+     * @param run the run to track
+     * @param provider the name of the location provider feeding the run, or {@code null} to use
+     *        the default provider
+     */
+    public void startTrackingSession(Run run, String provider) {
+        startSession(run.getId(),
+                provider != null ? provider : mLocationSource.getDefaultProvider());
+    }
+
+    private void startSession(long runId, String provider) {
+        synchronized (mTrackingLock) {
+            TrackingSession session = new TrackingSession(runId, provider);
+            TrackingSession previous = mSessions.put(runId, session);
+            if (previous != null) {
+                Log.d(TAG, "Restarted session " + previous);
+            }
+            startLocationUpdates(runId, provider);
+        }
     }
 
     /**
      * Stop the current run.
      */
     public void stopRun() {
-        stopLocationUpdates();
-        mCurrentRunId = -1;
-        mPrefs.edit().remove(PREF_CURRENT_RUN_ID).commit();
+        synchronized (mTrackingLock) {
+            long runId = mCurrentRunId.getAndSet(-1);
+            if (runId != -1) {
+                stopSession(runId);
+                persistCurrentRunId();
+            }
+        }
+    }
+
+    private void persistCurrentRunId() {
+        // Commit off the calling thread. Each commit writes whatever the current run is by the
+        // time it runs, so the last commit always leaves the latest state on disk.
+        mPrefsExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long runId = mCurrentRunId.get();
+                if (runId != -1) {
+                    mPrefs.edit().putLong(PREF_CURRENT_RUN_ID, runId).commit();
+                } else {
+                    mPrefs.edit().remove(PREF_CURRENT_RUN_ID).commit();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop tracking the run with the given ID, whether or not it is the current run.
+     *
+     * @param runId the ID of the run to stop tracking
+     */
+    public void stopSession(final long runId) {
+        stopSession(runId, new Runnable() {
+            @Override
+            public void run() {
+                onRunFinished(runId);
+            }
+        });
+    }
+
+    // Returns false (without calling onClosed) if the run had no session.
+    private boolean stopSession(long runId, Runnable onClosed) {
+        TrackingSession session;
+        synchronized (mTrackingLock) {
+            stopLocationUpdates(runId);
+            int sessionCount = mSessions.size();
+            session = mSessions.remove(runId);
+            if (session == null) {
+                return false;
+            }
+            Log.d(TAG, "Stopped session " + session + " (1 of " + sessionCount + " sessions)");
+        }
+        session.close(mHelper, mIngestExecutor, onClosed);
+        return true;
+    }
+
+    private void onRunFinished(final long runId) {
+        // Called once every location of the run has been written.
+        mDerivedDataExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mBestEffortEngine.updateRun(runId);
+                try {
+                    mHeatmapEngine.updateRun(runId);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to add run " + runId + " to the heatmap", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Callback for {@link RunManager#deleteRun(long, OnRunDeletedListener)}.
+     */
+    public interface OnRunDeletedListener {
+
+        /**
+         * Called on the UI thread once the run, and everything derived from it, is deleted.
+         *
+         * @param runId the ID of the deleted run
+         */
+        void onRunDeleted(long runId);
+    }
+
+    /**
+     * Deletes the run with the given ID in the background, stopping it first if it is being
+     * tracked. Its locations are removed from the heatmap, and then deleted a chunk at a time,
+     * so that deleting even a very long run never holds up the UI or the sessions recording
+     * other runs for long; its splits, pauses, best efforts and the run itself are deleted last.
+     * Deletions are queued with the other updates of derived data, so none of them sees a
+     * half-deleted run.
+     *
+     * @param runId the ID of the run to delete
+     * @param listener the listener to call once the run is deleted, or {@code null}
+     */
+    public void deleteRun(final long runId, final OnRunDeletedListener listener) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final Runnable delete = new Runnable() {
+            @Override
+            public void run() {
+                mDerivedDataExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeRun(runId);
+                        if (listener != null) {
+                            handler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onRunDeleted(runId);
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        };
+        discardPrefetchedRuns();
+        Run prefetched = mPrefetchedCurrentRun.get();
+        if (prefetched != null && prefetched.getId() == runId) {
+            mPrefetchedCurrentRun.compareAndSet(prefetched, null);
+        }
+        boolean stopped;
+        synchronized (mTrackingLock) {
+            if (mCurrentRunId.compareAndSet(runId, -1)) {
+                persistCurrentRunId();
+            }
+            // A tracked run is only deleted once its session has written its last locations, so
+            // that none of them outlives the run.
+            stopped = stopSession(runId, delete);
+        }
+        if (!stopped) {
+            delete.run();
+        }
+    }
+
+    private void removeRun(long runId) {
+        long start = System.nanoTime();
+        // The heatmap finds the cells to uncount from the run's locations, so this goes first.
+        try {
+            mHeatmapEngine.removeRun(runId);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to remove run " + runId + " from the heatmap", e);
+        }
+        // Each chunk commits on its own; writers waiting on the database get their turn between
+        // chunks.
+        int locationCount = 0;
+        int deleted;
+        do {
+            deleted = mHelper.deleteLocationsForRun(runId, DELETE_CHUNK_LOCATIONS);
+            locationCount += deleted;
+        } while (deleted == DELETE_CHUNK_LOCATIONS);
+        mHelper.deleteRun(runId);
+        Log.d(TAG, "Deleted run " + runId + " (" + locationCount + " locations) in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        reclaimSpace();
+    }
+
+    private void reclaimSpace() {
+        // Only in bounded steps, so writers waiting on the database get their turn between them.
+        // In a database that does not use incremental vacuuming yet, this does nothing, and the
+        // freed pages are simply reused by later runs (see compactDatabase()).
+        int pageCount = 0;
+        int freed;
+        do {
+            freed = mHelper.reclaimSpace(RECLAIM_CHUNK_PAGES);
+            pageCount += freed;
+        } while (freed == RECLAIM_CHUNK_PAGES);
+        Log.d(TAG, "Reclaimed " + pageCount + " pages");
+    }
+
+    /**
+     * Compacts the database, returning the space freed by deleted runs to the file system. The
+     * first time, in a database created before deletions reclaimed their space as they went, this
+     * rewrites the whole database, which can take minutes and blocks every other use of it
+     * meanwhile; so this must only be called when the user asks for it, and not on the UI thread.
+     * Refuses while any run is being recorded.
+     *
+     * @return {@code true} if the database was compacted; {@code false} if a run is being
+     *         recorded
+     */
+    public boolean compactDatabase() {
+        if (!mSessions.isEmpty()) {
+            return false;
+        }
+        // Queued behind any deletions still in progress, and ahead of any that follow.
+        Future<?> compaction = mDerivedDataExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!mHelper.enableIncrementalVacuum()) {
+                    reclaimSpace();
+                }
+            }
+        });
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to compact the database", e.getCause());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets how far the run with the given ID has got, if it is being tracked.
+     *
+     * @param runId the ID of the run
+     * @return the progress of the run, or {@code null} if it is not being tracked or no location
+     *         has been written for it yet
+     */
+    public TrackingSession.Progress getProgress(long runId) {
+        TrackingSession session = mSessions.get(runId);
+        return session != null ? session.getProgress() : null;
+    }
+
+    /**
+     * Gets the sessions currently being tracked.
+     *
+     * @return the sessions being tracked
+     */
+    public Collection<TrackingSession> getTrackingSessions() {
+        return Collections.unmodifiableCollection(mSessions.values());
     }
 
     private Run insertRun() {
+        discardPrefetchedRuns();
         Run run = new Run();
         run.setId(mHelper.insertRun(run));
         return run;
@@ -180,6 +840,35 @@ public class RunManager {
         return mHelper.queryRuns();
     }
 
+    /**
+     * Gets a cursor for the page of runs described by the given query.
+     *
+     * @param query the runs to query
+     * @return a cursor for the matching runs, in the query's sort order
+     */
+    public RunCursor queryRuns(RunQuery query) {
+        return mHelper.queryRuns(query);
+    }
+
+    /**
+     * Gets a cursor for all of the runs currently in the database, reusing the cursor prefetched
+     * when the {@code RunManager} was warmed up, if it has not been taken, or dropped as stale,
+     * yet.
+     *
+     * @return a cursor for the runs currently stored in the Run database
+     */
+    public RunCursor takePrefetchedRuns() {
+        RunCursor runs = mPrefetchedRuns.getAndSet(null);
+        return runs != null ? runs : queryRuns();
+    }
+
+    private void discardPrefetchedRuns() {
+        RunCursor runs = mPrefetchedRuns.getAndSet(null);
+        if (runs != null) {
+            runs.close();
+        }
+    }
+
     /**
      * Gets the run with the given ID, if any exists
      *
@@ -187,6 +876,13 @@ public class RunManager {
      * @return the run with the given ID, if such exists; otherwise {@code null}
      */
     public Run getRun(long id) {
+        // The run prefetched when warming up only serves the first read after a cold start; the
+        // summary of a run being tracked changes with every batch of locations written.
+        Run prefetched = mPrefetchedCurrentRun.get();
+        if (prefetched != null && prefetched.getId() == id
+                && mPrefetchedCurrentRun.compareAndSet(prefetched, null)) {
+            return prefetched;
+        }
         Run run = null;
         RunCursor cursor = mHelper.queryRun(id);
         cursor.moveToFirst();
@@ -205,7 +901,7 @@ public class RunManager {
      * @return the current run, or {@code null}, if no current run exists
      */
     public Run getCurrentRun() {
-        return getRun(mCurrentRunId);
+        return getRun(mCurrentRunId.get());
     }
 
     /**
@@ -214,11 +910,100 @@ public class RunManager {
      * @param loc the location to insert
      */
     public void insertLocation(Location loc) {
-        if (mCurrentRunId != -1) {
-            mHelper.insertLocation(mCurrentRunId, loc);
-        } else {
+        insertLocation(-1, loc);
+    }
+
+    /**
+     * Queues the given location to be inserted into the database as part of the run with the
+     * given ID. The location is written asynchronously, by the run's session.
+     *
+     * @param runId the ID of the run the location was tagged with, or {@code -1} for the current
+     *        run
+     * @param loc the location to insert
+     */
+    public void insertLocation(long runId, Location loc) {
+        if (runId == -1) {
+            runId = mCurrentRunId.get();
+        }
+        if (runId == -1) {
             Log.e(TAG, "Location received with no tracking run; ignoring.");
+            return;
+        }
+        TrackingSession session = mSessions.get(runId);
+        if (session == null) {
+            // Rare, so it can take the lock: checking for the location updates and recreating the
+            // session must not interleave with stopping the run.
+            synchronized (mTrackingLock) {
+                session = mSessions.get(runId);
+                if (session == null) {
+                    if (!mLocationSource.isStarted(runId)) {
+                        // A straggler for a session that has just been stopped.
+                        Log.d(TAG, "Location received for untracked run " + runId
+                                + "; ignoring.");
+                        return;
+                    }
+                    // The process was restarted while the run was being tracked.
+                    session = new TrackingSession(runId, loc.getProvider());
+                    mSessions.put(runId, session);
+                }
+            }
+        }
+        session.enqueue(loc, mHelper, mIngestExecutor);
+    }
+
+    /**
+     * Gets a cursor for the splits of the given unit of the run with the given ID.
+     *
+     * @param runId the ID of the run to query
+     * @param unit {@link Split#UNIT_KILOMETER} or {@link Split#UNIT_MILE}
+     * @return a cursor for the splits of the run, in order
+     */
+    public SplitCursor querySplitsForRun(long runId, int unit) {
+        return mHelper.querySplitsForRun(runId, unit);
+    }
+
+    /**
+     * Gets the fastest effort over the given distance across all runs, if any exists.
+     *
+     * @param targetMeters the distance of the effort (one of {@link BestEffort#TARGET_METERS})
+     * @return the fastest effort over the given distance, or {@code null} if no run is that long
+     */
+    public BestEffort getBestEffort(int targetMeters) {
+        BestEffort effort = null;
+        BestEffortCursor cursor = mHelper.queryBestEfforts(targetMeters, 1);
+        cursor.moveToFirst();
+
+        // If we got a row, get a best effort.
+        if (!cursor.isAfterLast()) {
+            effort = cursor.getBestEffort();
+        }
+        cursor.close();
+        return effort;
+    }
+
+    /**
+     * Gets a cursor for the best efforts within the run with the given ID.
+     *
+     * @param runId the ID of the run to query
+     * @return a cursor for the best efforts of the run, shortest distance first
+     */
+    public BestEffortCursor queryBestEffortsForRun(long runId) {
+        return mHelper.queryBestEffortsForRun(runId);
+    }
+
+    /**
+     * Builds a {@link GhostIndex} for the run with the given ID, to compare a live run against.
+     * This reads the whole run, so it should not be called on the UI thread.
+     *
+     * @param runId the ID of the run to index
+     * @return the index of the run, or {@code null} if no such run exists
+     */
+    public GhostIndex loadGhostIndex(long runId) {
+        Run run = getRun(runId);
+        if (run == null) {
+            return null;
         }
+        return GhostIndex.build(mHelper.queryTrack(runId), run.getStartDate());
     }
 
     /**
@@ -239,4 +1024,75 @@ public class RunManager {
         cursor.close();
         return location;
     }
-}
\ No newline at end of file
+
+    /**
+     * The default {@link LocationSource}: requests the updates of each run from the
+     * {@link LocationManager}, which broadcasts them to the {@link TrackingLocationReceiver}
+     * tagged with the run's ID, even after the process has been restarted.
+     */
+    private static class SystemLocationSource implements LocationSource {
+        private final Context mAppContext;
+        private final LocationManager mLocationManager;
+
+        public SystemLocationSource(Context appContext) {
+            mAppContext = appContext;
+            mLocationManager = (LocationManager)appContext.getSystemService(
+                    Context.LOCATION_SERVICE);
+        }
+
+        @Override
+        public String getDefaultProvider() {
+            String provider = LocationManager.GPS_PROVIDER;
+            // If we have the test provider and it's enabled, use it.
+            if (mLocationManager.getProvider(TEST_PROVIDER) != null &&
+                    mLocationManager.isProviderEnabled(TEST_PROVIDER)) {
+                provider = TEST_PROVIDER;
+            }
+            return provider;
+        }
+
+        @Override
+        public void start(long runId, String provider) {
+            // Get the last known location and broadcast it if we have a recent one. It keeps its
+            // own time: where the run was a while ago is not where it is now.
+            Location lastKnown = mLocationManager.getLastKnownLocation(provider);
+            if (lastKnown != null && System.currentTimeMillis() - lastKnown.getTime()
+                    <= MAX_LAST_KNOWN_AGE_MILLIS) {
+                broadcastLocation(runId, lastKnown);
+            }
+
+            // Start updates from the location manager.
+            PendingIntent pi = getLocationPendingIntent(runId, true);
+            mLocationManager.requestLocationUpdates(provider, 0, 0, pi);
+        }
+
+        @Override
+        public void stop(long runId) {
+            PendingIntent pi = getLocationPendingIntent(runId, false);
+            if (pi != null) {
+                mLocationManager.removeUpdates(pi);
+                pi.cancel();
+            }
+        }
+
+        @Override
+        public boolean isStarted(long runId) {
+            return getLocationPendingIntent(runId, false) != null;
+        }
+
+        private PendingIntent getLocationPendingIntent(long runId, boolean shouldCreate) {
+            Intent broadcast = new Intent(ACTION_LOCATION);
+            broadcast.putExtra(EXTRA_RUN_ID, runId);
+            int flags = shouldCreate ? 0 : PendingIntent.FLAG_NO_CREATE;
+            // Each session gets its own pending intent, told apart by request code.
+            return PendingIntent.getBroadcast(mAppContext, (int)runId, broadcast, flags);
+        }
+
+        private void broadcastLocation(long runId, Location location) {
+            Intent broadcast = new Intent(ACTION_LOCATION);
+            broadcast.putExtra(LocationManager.KEY_LOCATION_CHANGED, location);
+            broadcast.putExtra(EXTRA_RUN_ID, runId);
+            mAppContext.sendBroadcast(broadcast);
+        }
+    }
+}
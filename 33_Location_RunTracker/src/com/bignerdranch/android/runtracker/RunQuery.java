@@ -0,0 +1,195 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.Date;
+
+/**
+ * Describes a page of {@link Run}s to query: optional start date, distance and duration ranges,
+ * the order to sort the runs in, and where the page starts.
+ * <p>
+ * Pages are addressed by the last run of the previous page rather than by an offset, so that each
+ * page is read straight from an index no matter how deep into the results it is.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunQuery {
+    /** Sort the runs by start date. */
+    public static final int SORT_BY_START_DATE = 0;
+    /** Sort the runs by distance. */
+    public static final int SORT_BY_DISTANCE = 1;
+    /** Sort the runs by duration. */
+    public static final int SORT_BY_DURATION = 2;
+
+    private Date mStartDateFrom;
+    private Date mStartDateTo;
+    private double mMinDistanceMeters = -1;
+    private double mMaxDistanceMeters = -1;
+    private long mMinDurationMillis = -1;
+    private long mMaxDurationMillis = -1;
+    private int mSortBy = SORT_BY_START_DATE;
+    private boolean mDescending;
+    private int mPageSize;
+    private Run mAfter;
+
+    /**
+     * Creates a new {@code RunQuery} matching every run, sorted by ascending start date, in a
+     * single page.
+     */
+    public RunQuery() {
+    }
+
+    /**
+     * Limits the query to runs started within the given range.
+     *
+     * @param from the earliest start date (inclusive), or {@code null} for no lower bound
+     * @param to the latest start date (exclusive), or {@code null} for no upper bound
+     */
+    public void setStartDateRange(Date from, Date to) {
+        mStartDateFrom = from;
+        mStartDateTo = to;
+    }
+
+    /**
+     * Limits the query to runs whose distance is within the given range.
+     *
+     * @param min the minimum distance (inclusive, in meters), or {@code -1} for no lower bound
+     * @param max the maximum distance (inclusive, in meters), or {@code -1} for no upper bound
+     */
+    public void setDistanceRange(double min, double max) {
+        mMinDistanceMeters = min;
+        mMaxDistanceMeters = max;
+    }
+
+    /**
+     * Limits the query to runs whose duration is within the given range.
+     *
+     * @param min the minimum duration (inclusive, in milliseconds), or {@code -1} for no lower
+     *        bound
+     * @param max the maximum duration (inclusive, in milliseconds), or {@code -1} for no upper
+     *        bound
+     */
+    public void setDurationRange(long min, long max) {
+        mMinDurationMillis = min;
+        mMaxDurationMillis = max;
+    }
+
+    /**
+     * Sets the order in which to return the runs. Runs with equal sort keys are ordered by ID.
+     *
+     * @param sortBy {@link #SORT_BY_START_DATE}, {@link #SORT_BY_DISTANCE} or
+     *        {@link #SORT_BY_DURATION}
+     * @param descending {@code true} to return the largest values first
+     */
+    public void setSortOrder(int sortBy, boolean descending) {
+        mSortBy = sortBy;
+        mDescending = descending;
+    }
+
+    /**
+     * Sets the maximum number of runs to return.
+     *
+     * @param pageSize the maximum number of runs to return, or {@code 0} for no limit
+     */
+    public void setPageSize(int pageSize) {
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Starts the page right after the given run, which should be the last run of the previous
+     * page of this same query.
+     *
+     * @param after the last run of the previous page, or {@code null} to start at the first page
+     */
+    public void setAfter(Run after) {
+        mAfter = after;
+    }
+
+    /**
+     * Gets the earliest start date of the runs to return.
+     *
+     * @return the earliest start date (inclusive), or {@code null} if there is no lower bound
+     */
+    public Date getStartDateFrom() {
+        return mStartDateFrom;
+    }
+
+    /**
+     * Gets the latest start date of the runs to return.
+     *
+     * @return the latest start date (exclusive), or {@code null} if there is no upper bound
+     */
+    public Date getStartDateTo() {
+        return mStartDateTo;
+    }
+
+    /**
+     * Gets the minimum distance of the runs to return.
+     *
+     * @return the minimum distance (in meters), or {@code -1} if there is no lower bound
+     */
+    public double getMinDistanceMeters() {
+        return mMinDistanceMeters;
+    }
+
+    /**
+     * Gets the maximum distance of the runs to return.
+     *
+     * @return the maximum distance (in meters), or {@code -1} if there is no upper bound
+     */
+    public double getMaxDistanceMeters() {
+        return mMaxDistanceMeters;
+    }
+
+    /**
+     * Gets the minimum duration of the runs to return.
+     *
+     * @return the minimum duration (in milliseconds), or {@code -1} if there is no lower bound
+     */
+    public long getMinDurationMillis() {
+        return mMinDurationMillis;
+    }
+
+    /**
+     * Gets the maximum duration of the runs to return.
+     *
+     * @return the maximum duration (in milliseconds), or {@code -1} if there is no upper bound
+     */
+    public long getMaxDurationMillis() {
+        return mMaxDurationMillis;
+    }
+
+    /**
+     * Gets the key to sort the runs by.
+     *
+     * @return {@link #SORT_BY_START_DATE}, {@link #SORT_BY_DISTANCE} or {@link #SORT_BY_DURATION}
+     */
+    public int getSortBy() {
+        return mSortBy;
+    }
+
+    /**
+     * Determine whether the largest values are returned first.
+     *
+     * @return {@code true} if the runs are sorted in descending order; otherwise {@code false}
+     */
+    public boolean isDescending() {
+        return mDescending;
+    }
+
+    /**
+     * Gets the maximum number of runs to return.
+     *
+     * @return the page size, or {@code 0} if there is no limit
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Gets the run after which the page starts.
+     *
+     * @return the last run of the previous page, or {@code null} for the first page
+     */
+    public Run getAfter() {
+        return mAfter;
+    }
+}
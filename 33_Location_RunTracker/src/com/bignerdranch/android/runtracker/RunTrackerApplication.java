@@ -0,0 +1,52 @@
+package com.bignerdranch.android.runtracker;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * The RunTracker application. Starts warming up the {@link RunManager} as soon as the process is
+ * created, and measures the time it takes the first activity to draw its first frame.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunTrackerApplication extends Application {
+    private static final String TAG = "RunTrackerApplication";
+
+    private static long sCreatedUptimeMillis = -1;
+    private static boolean sFirstFrameReported;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sCreatedUptimeMillis = SystemClock.uptimeMillis();
+        RunManager.warmUp(this);
+    }
+
+    /**
+     * Logs the time from application creation to the first frame drawn by the given view, if no
+     * first frame has been reported yet. Must be called on the UI thread.
+     *
+     * @param view the root view of the first activity
+     */
+    public static void reportFirstFrame(View view) {
+        if (sFirstFrameReported || sCreatedUptimeMillis == -1) {
+            return;
+        }
+        sFirstFrameReported = true;
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                Log.i(TAG, "Time to first frame: "
+                        + (SystemClock.uptimeMillis() - sCreatedUptimeMillis) + " ms");
+                return true;
+            }
+        });
+    }
+}
@@ -26,6 +26,7 @@ public abstract class SingleFragmentActivity extends FragmentActivity {
         FrameLayout fl = new FrameLayout(this);
         fl.setId(R.id.fragmentContainer);
         setContentView(fl);
+        RunTrackerApplication.reportFirstFrame(fl);
 
         FragmentManager manager = getSupportFragmentManager();
         Fragment fragment = manager.findFragmentById(R.id.fragmentContainer);
@@ -0,0 +1,102 @@
+package com.bignerdranch.android.runtracker;
+
+/**
+ * A class representing a single completed split (one kilometer or one mile) of a {@link Run}.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Split {
+    /** The unit for kilometer splits. */
+    public static final int UNIT_KILOMETER = 0;
+    /** The unit for mile splits. */
+    public static final int UNIT_MILE = 1;
+
+    private static final double[] UNIT_METERS = { 1000.0, 1609.344 };
+
+    private long mRunId;
+    private int mUnit;
+    private int mIndex;
+    private long mElapsedMillis;
+    private long mEndTimestamp;
+
+    /**
+     * Creates a new {@code Split}.
+     *
+     * @param runId the ID of the run the split belongs to
+     * @param unit the unit of the split ({@link #UNIT_KILOMETER} or {@link #UNIT_MILE})
+     * @param index the zero-based index of the split within the run
+     * @param elapsedMillis the time taken to cover the split (in milliseconds)
+     * @param endTimestamp the (interpolated) time at which the split boundary was crossed
+     */
+    public Split(long runId, int unit, int index, long elapsedMillis, long endTimestamp) {
+        mRunId = runId;
+        mUnit = unit;
+        mIndex = index;
+        mElapsedMillis = elapsedMillis;
+        mEndTimestamp = endTimestamp;
+    }
+
+    /**
+     * Gets the ID of the run this split belongs to.
+     *
+     * @return the ID of the run this split belongs to
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the unit of this split.
+     *
+     * @return {@link #UNIT_KILOMETER} or {@link #UNIT_MILE}
+     */
+    public int getUnit() {
+        return mUnit;
+    }
+
+    /**
+     * Gets the zero-based index of this split within its run.
+     *
+     * @return the index of this split
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Gets the time taken to cover this split.
+     *
+     * @return the duration of this split (in milliseconds)
+     */
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * Gets the time at which the end boundary of this split was crossed.
+     *
+     * @return the end time of this split (in milliseconds since the epoch)
+     */
+    public long getEndTimestamp() {
+        return mEndTimestamp;
+    }
+
+    /**
+     * Gets the length of a split in the given unit.
+     *
+     * @param unit {@link #UNIT_KILOMETER} or {@link #UNIT_MILE}
+     * @return the length of one split of the given unit (in meters)
+     */
+    public static double getUnitMeters(int unit) {
+        return UNIT_METERS[unit];
+    }
+
+    /**
+     * Gets the number of split units supported.
+     *
+     * @return the number of split units
+     */
+    public static int getUnitCount() {
+        return UNIT_METERS.length;
+    }
+}
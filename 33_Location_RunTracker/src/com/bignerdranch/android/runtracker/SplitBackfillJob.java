@@ -0,0 +1,66 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derives the splits of the runs recorded before splits were tracked (database version 2), in the
+ * background rather than while the database is upgraded. The database marks this job as done
+ * when it is created or upgraded from a version that already tracked splits, so it only has work
+ * to do after an upgrade from version 1.
+ * <p>
+ * Runs recorded since the upgrade get their splits as they are recorded; computing them again
+ * only finds the splits they already have, which are ignored.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class SplitBackfillJob implements RecomputeJob<List<Split>> {
+    /** The name under which the progress of this job is checkpointed. */
+    public static final String NAME = "split_backfill";
+    /** The version of this job. */
+    public static final int VERSION = 1;
+
+    private final RunDatabaseHelper mHelper;
+
+    /**
+     * Creates a new {@code SplitBackfillJob} reading the runs of the given database.
+     *
+     * @param helper the database holding the runs
+     */
+    public SplitBackfillJob(RunDatabaseHelper helper) {
+        mHelper = helper;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<Split> compute(long runId) {
+        Track track = mHelper.queryTrack(runId);
+        long[] timestamps = track.getTimestamps();
+        double[] latitudes = track.getLatitudes();
+        double[] longitudes = track.getLongitudes();
+        SplitTracker tracker = new SplitTracker(runId);
+        List<Split> splits = new ArrayList<Split>();
+        for (int i = 0; i < track.size(); i++) {
+            splits.addAll(tracker.addLocation(timestamps[i], latitudes[i], longitudes[i]));
+        }
+        return splits;
+    }
+
+    @Override
+    public void write(RunDatabaseHelper helper, List<List<Split>> results) {
+        for (List<Split> splits : results) {
+            for (Split split : splits) {
+                helper.insertSplit(split);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.location.Location;
+
+/**
+ * Incrementally detects the kilometer and mile {@link Split}s of a single run as its locations
+ * arrive. Each location is only looked at once; split boundaries that fall between two locations
+ * are interpolated linearly, so the split times do not depend on how often fixes arrive.
+ * Distances are measured with {@link Geodesy#segmentMeters(double, double, double, double)}, like
+ * those of a {@link Track}, so a live run and a {@link GhostIndex} agree on how far is how far.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class SplitTracker {
+    private final long mRunId;
+    private final int[] mNextIndex = new int[Split.getUnitCount()];
+    private final long[] mLastBoundaryMillis = new long[Split.getUnitCount()];
+
+    private long mLastTimestamp = -1;
+    private double mLastLatitude;
+    private double mLastLongitude;
+    private double mDistanceMeters;
+
+    /**
+     * Creates a new {@code SplitTracker} for the run with the given ID.
+     *
+     * @param runId the ID of the run to track
+     */
+    public SplitTracker(long runId) {
+        mRunId = runId;
+    }
+
+    /**
+     * Gets the ID of the run this tracker is tracking.
+     *
+     * @return the ID of the tracked run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the distance covered so far by the tracked run.
+     *
+     * @return the distance covered so far (in meters)
+     */
+    public double getDistanceMeters() {
+        return mDistanceMeters;
+    }
+
+    /**
+     * Gets the time of the last location added to the tracked run.
+     *
+     * @return the time of the last location (in milliseconds since the epoch), or {@code -1} if
+     *         no location has been added yet
+     */
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    /**
+     * Adds the given location to the tracked run, and returns the splits completed by it.
+     * Locations older than the last location added are ignored.
+     *
+     * @param loc the next location of the run
+     * @return the splits completed between the previous location and this one (possibly empty)
+     */
+    public List<Split> addLocation(Location loc) {
+        return addLocation(loc.getTime(), loc.getLatitude(), loc.getLongitude());
+    }
+
+    /**
+     * Adds the location with the given time and coordinates to the tracked run, e.g. one read from
+     * a {@link Track}, and returns the splits completed by it. Locations older than the last
+     * location added are ignored.
+     *
+     * @param timestamp the time of the location (in milliseconds since the epoch)
+     * @param latitude the latitude of the location (in degrees)
+     * @param longitude the longitude of the location (in degrees)
+     * @return the splits completed between the previous location and this one (possibly empty)
+     */
+    public List<Split> addLocation(long timestamp, double latitude, double longitude) {
+        List<Split> splits = new ArrayList<Split>(0);
+        if (mLastTimestamp == -1) {
+            // The first fix is the start line for every unit.
+            for (int unit = 0; unit < mLastBoundaryMillis.length; unit++) {
+                mLastBoundaryMillis[unit] = timestamp;
+            }
+            setLastLocation(timestamp, latitude, longitude);
+            return splits;
+        }
+        long startMillis = mLastTimestamp;
+        long endMillis = timestamp;
+        if (endMillis < startMillis) {
+            return splits;
+        }
+
+        double startMeters = mDistanceMeters;
+        double segmentMeters = Geodesy.segmentMeters(mLastLatitude, mLastLongitude, latitude,
+                longitude);
+        double endMeters = startMeters + segmentMeters;
+        for (int unit = 0; unit < mNextIndex.length; unit++) {
+            double unitMeters = Split.getUnitMeters(unit);
+            double boundaryMeters = (mNextIndex[unit] + 1) * unitMeters;
+            while (boundaryMeters <= endMeters) {
+                // Interpolate the time at which the boundary was crossed.
+                double fraction = (boundaryMeters - startMeters) / segmentMeters;
+                long crossedMillis = startMillis + Math.round(fraction * (endMillis - startMillis));
+                splits.add(new Split(mRunId, unit, mNextIndex[unit],
+                        crossedMillis - mLastBoundaryMillis[unit], crossedMillis));
+                mLastBoundaryMillis[unit] = crossedMillis;
+                mNextIndex[unit]++;
+                boundaryMeters = (mNextIndex[unit] + 1) * unitMeters;
+            }
+        }
+        mDistanceMeters = endMeters;
+        setLastLocation(timestamp, latitude, longitude);
+        return splits;
+    }
+
+    private void setLastLocation(long timestamp, double latitude, double longitude) {
+        mLastTimestamp = timestamp;
+        mLastLatitude = latitude;
+        mLastLongitude = longitude;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bignerdranch.android.runtracker;
+
+import android.location.Location;
+
+/**
+ * The locations of a single run, held in primitive arrays (oldest first) rather than as
+ * {@link Location} objects, for analyses that walk over whole runs.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class Track {
+    private final long mRunId;
+    private final int mSize;
+    private final long[] mTimestamps;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private double[] mCumulativeMeters;
+
+    /**
+     * Creates a new {@code Track} from the given arrays, which must be in time order and hold at
+     * least {@code size} elements each.
+     *
+     * @param runId the ID of the run the track belongs to
+     * @param size the number of locations in the track
+     * @param timestamps the times of the locations (in milliseconds since the epoch)
+     * @param latitudes the latitudes of the locations (in degrees)
+     * @param longitudes the longitudes of the locations (in degrees)
+     */
+    public Track(long runId, int size, long[] timestamps, double[] latitudes,
+            double[] longitudes) {
+        mRunId = runId;
+        mSize = size;
+        mTimestamps = timestamps;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+    }
+
+    /**
+     * Gets the ID of the run this track belongs to.
+     *
+     * @return the ID of the run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the number of locations in this track.
+     *
+     * @return the number of locations
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the times of the locations in this track. Only the first {@link #size()} elements are
+     * valid.
+     *
+     * @return the times of the locations (in milliseconds since the epoch)
+     */
+    public long[] getTimestamps() {
+        return mTimestamps;
+    }
+
+    /**
+     * Gets the latitudes of the locations in this track. Only the first {@link #size()} elements
+     * are valid.
+     *
+     * @return the latitudes of the locations (in degrees)
+     */
+    public double[] getLatitudes() {
+        return mLatitudes;
+    }
+
+    /**
+     * Gets the longitudes of the locations in this track. Only the first {@link #size()} elements
+     * are valid.
+     *
+     * @return the longitudes of the locations (in degrees)
+     */
+    public double[] getLongitudes() {
+        return mLongitudes;
+    }
+
+    /**
+     * Gets the distance covered from the start of this track to each of its locations. The
+     * distances are computed on first use, with {@link Geodesy#segmentMeters}.
+     *
+     * @return the cumulative distance at each location (in meters); only the first
+     *         {@link #size()} elements are valid
+     */
+    public double[] getCumulativeMeters() {
+        if (mCumulativeMeters == null) {
+            double[] cumulative = new double[mSize];
+            Geodesy.segmentMeters(mLatitudes, mLongitudes, mSize, cumulative);
+            for (int i = 1; i < mSize; i++) {
+                cumulative[i] += cumulative[i - 1];
+            }
+            mCumulativeMeters = cumulative;
+        }
+        return mCumulativeMeters;
+    }
+}
@@ -4,8 +4,8 @@ import android.content.Context;
 import android.location.Location;
 
 /**
- * A {@link LocationReceiver} that inserts the locations it receives into the database for the
- * current run.
+ * A {@link LocationReceiver} that inserts the locations it receives into the database for the run
+ * they are tagged with (or for the current run, if they are not tagged).
  *
  * @author Bill Phillips
  * @author Brian Hardy
@@ -14,7 +14,14 @@ import android.location.Location;
 public class TrackingLocationReceiver extends LocationReceiver {
 
     @Override
-    protected void onLocationReceived(Context c, Location loc) {
-        RunManager.get(c).insertLocation(loc);
+    protected void onLocationReceived(Context c, final long runId, final Location loc) {
+        // Receivers run on the main thread, which must not wait for the RunManager to warm up
+        // (opening, and possibly upgrading, the database) when the process has just started.
+        RunManager.whenReady(c, new RunManager.OnReadyListener() {
+            @Override
+            public void onRunManagerReady(RunManager runManager) {
+                runManager.insertLocation(runId, loc);
+            }
+        });
     }
 }
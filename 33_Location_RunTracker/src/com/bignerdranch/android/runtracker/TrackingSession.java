@@ -0,0 +1,374 @@
+package com.bignerdranch.android.runtracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.LocationCursor;
+
+/**
+ * The state of a single run being tracked by the {@link RunManager}: the provider feeding it, a
+ * queue of locations waiting to be written to the database, its {@link FixReorderBuffer} and
+ * {@link SplitTracker}, and some ingest statistics. Several sessions may be tracked at once.
+ * <p>
+ * Locations are written by draining the queue on an {@link Executor}. At most one drain per
+ * session runs at a time, and each drain passes the locations through the session's
+ * {@link FixReorderBuffer}, so the locations of a session are written in order of time, while
+ * different sessions are written in parallel.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class TrackingSession {
+    private static final String TAG = "TrackingSession";
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final long mRunId;
+    private final String mProvider;
+    private final Queue<Location> mQueue = new ConcurrentLinkedQueue<Location>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final AtomicReference<Runnable> mOnClosed = new AtomicReference<Runnable>();
+
+    private final AtomicLong mFixesReceived = new AtomicLong();
+    private final AtomicLong mFixesWritten = new AtomicLong();
+    private final AtomicLong mFixesSuppressed = new AtomicLong();
+    private final AtomicLong mFixesDropped = new AtomicLong();
+    private final AtomicLong mBatchesWritten = new AtomicLong();
+    private final AtomicLong mWriteNanos = new AtomicLong();
+    private volatile Progress mProgress;
+
+    // Only touched by the (single) running drain.
+    private FixReorderBuffer mReorderBuffer;
+    private SplitTracker mSplitTracker;
+    private AutoPauseDetector mAutoPauseDetector;
+    private long mPausedMillis;
+
+    /**
+     * Creates a new {@code TrackingSession} for the run with the given ID.
+     *
+     * @param runId the ID of the run to track
+     * @param provider the name of the location provider feeding the run
+     */
+    public TrackingSession(long runId, String provider) {
+        mRunId = runId;
+        mProvider = provider;
+    }
+
+    /**
+     * Gets the ID of the run tracked by this session.
+     *
+     * @return the ID of the tracked run
+     */
+    public long getRunId() {
+        return mRunId;
+    }
+
+    /**
+     * Gets the name of the location provider feeding this session.
+     *
+     * @return the name of the location provider
+     */
+    public String getProvider() {
+        return mProvider;
+    }
+
+    /**
+     * Queues the given location to be written to the database, and makes sure a drain of this
+     * session's queue is scheduled on the given executor.
+     *
+     * @param loc the location to write
+     * @param helper the database to write to
+     * @param executor the executor on which to write
+     */
+    public void enqueue(Location loc, RunDatabaseHelper helper, Executor executor) {
+        mQueue.add(loc);
+        mFixesReceived.incrementAndGet();
+        scheduleDrain(helper, executor);
+    }
+
+    /**
+     * Closes this session: once every location queued so far (including those held for
+     * reordering) has been written, along with any pause in progress, the given callback is run
+     * on the given executor.
+     *
+     * @param helper the database to write to
+     * @param executor the executor on which to write
+     * @param onClosed the callback to run once all queued locations have been written
+     */
+    public void close(RunDatabaseHelper helper, Executor executor, Runnable onClosed) {
+        mOnClosed.set(onClosed);
+        scheduleDrain(helper, executor);
+    }
+
+    private void scheduleDrain(final RunDatabaseHelper helper, Executor executor) {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(helper);
+                }
+            });
+        }
+    }
+
+    private void drain(RunDatabaseHelper helper) {
+        do {
+            try {
+                List<Location> batch = new ArrayList<Location>();
+                Location loc;
+                while (batch.size() < MAX_BATCH_SIZE && (loc = mQueue.poll()) != null) {
+                    batch.add(loc);
+                }
+                if (!batch.isEmpty()) {
+                    catchUp(helper);
+                    write(helper, reorder(batch));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to write locations for run " + mRunId, e);
+            } finally {
+                mDrainScheduled.set(false);
+            }
+            // Pick up anything that was queued after we stopped polling but before the flag was
+            // cleared (its enqueue saw the flag still set, so no one else will).
+        } while (!mQueue.isEmpty() && mDrainScheduled.compareAndSet(false, true));
+
+        // Once closed, write the locations still held for reordering and any pause in progress,
+        // and then call back. Taking the flag again keeps this from overlapping another drain; if
+        // one has just started, it finishes the job instead.
+        if (mQueue.isEmpty() && mOnClosed.get() != null
+                && mDrainScheduled.compareAndSet(false, true)) {
+            Runnable onClosed = mOnClosed.getAndSet(null);
+            try {
+                if (mReorderBuffer != null) {
+                    List<Location> held = new ArrayList<Location>();
+                    mReorderBuffer.flush(held);
+                    write(helper, held);
+                    finishPause(helper);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to write locations for run " + mRunId, e);
+            } finally {
+                mDrainScheduled.set(false);
+            }
+            if (onClosed != null) {
+                onClosed.run();
+            }
+        }
+    }
+
+    private List<Location> reorder(List<Location> batch) {
+        List<Location> released = new ArrayList<Location>(batch.size());
+        for (Location loc : batch) {
+            if (!mReorderBuffer.add(loc, released)) {
+                mFixesDropped.incrementAndGet();
+            }
+        }
+        return released;
+    }
+
+    private void write(RunDatabaseHelper helper, List<Location> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Location> locations = new ArrayList<Location>(batch.size());
+        List<Split> splits = new ArrayList<Split>();
+        List<Pause> pauses = new ArrayList<Pause>(0);
+        for (Location loc : batch) {
+            // Locations received while standing still are not recorded at all.
+            if (!mAutoPauseDetector.accept(loc)) {
+                continue;
+            }
+            Pause pause = mAutoPauseDetector.takeFinishedPause();
+            if (pause != null) {
+                pauses.add(pause);
+                mPausedMillis += pause.getDurationMillis();
+            }
+            locations.add(loc);
+            splits.addAll(mSplitTracker.addLocation(loc));
+        }
+        mFixesSuppressed.addAndGet(batch.size() - locations.size());
+        if (locations.isEmpty()) {
+            return;
+        }
+        helper.insertLocations(mRunId, locations, splits, pauses,
+                mSplitTracker.getDistanceMeters(), mSplitTracker.getLastTimestamp(),
+                mPausedMillis);
+        mProgress = new Progress(mSplitTracker.getDistanceMeters(),
+                mSplitTracker.getLastTimestamp(), mPausedMillis);
+        mWriteNanos.addAndGet(System.nanoTime() - start);
+        mFixesWritten.addAndGet(locations.size());
+        mBatchesWritten.incrementAndGet();
+    }
+
+    private void finishPause(RunDatabaseHelper helper) {
+        // A run stopped while paused ends at the pause's anchor, its last recorded location.
+        Pause pause = mAutoPauseDetector.finish();
+        if (pause != null) {
+            mPausedMillis += pause.getDurationMillis();
+            helper.insertLocations(mRunId, new ArrayList<Location>(0), new ArrayList<Split>(0),
+                    Collections.singletonList(pause), mSplitTracker.getDistanceMeters(),
+                    mSplitTracker.getLastTimestamp(), mPausedMillis);
+        }
+    }
+
+    private void catchUp(RunDatabaseHelper helper) {
+        if (mSplitTracker == null) {
+            // Catch up with the locations already recorded for the run (e.g., if the process was
+            // restarted mid-run). The splits and pauses they complete have already been stored.
+            mSplitTracker = new SplitTracker(mRunId);
+            Location last = null;
+            LocationCursor cursor = helper.queryLocationsForRun(mRunId);
+            while (cursor.moveToNext()) {
+                last = cursor.getLocation();
+                mSplitTracker.addLocation(last);
+            }
+            cursor.close();
+            mReorderBuffer = new FixReorderBuffer(last);
+            mAutoPauseDetector = new AutoPauseDetector(mRunId);
+            mPausedMillis = helper.queryPausedMillis(mRunId);
+            if (last != null) {
+                mProgress = new Progress(mSplitTracker.getDistanceMeters(), last.getTime(),
+                        mPausedMillis);
+            }
+        }
+    }
+
+    /**
+     * Gets how far the run has got, as of the last location written. The distance is the one
+     * recorded for the run: it leaves out the locations received while paused, or dropped as
+     * duplicates.
+     *
+     * @return the progress of the run, or {@code null} if no location has been written yet
+     */
+    public Progress getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * Gets the number of locations received by this session so far.
+     *
+     * @return the number of locations received
+     */
+    public long getFixesReceived() {
+        return mFixesReceived.get();
+    }
+
+    /**
+     * Gets the number of locations written to the database by this session so far.
+     *
+     * @return the number of locations written
+     */
+    public long getFixesWritten() {
+        return mFixesWritten.get();
+    }
+
+    /**
+     * Gets the number of locations that were not written because the run was paused.
+     *
+     * @return the number of locations suppressed
+     */
+    public long getFixesSuppressed() {
+        return mFixesSuppressed.get();
+    }
+
+    /**
+     * Gets the number of locations that were not written because they duplicated another
+     * location, or arrived too late to be written in order of time.
+     *
+     * @return the number of locations dropped
+     */
+    public long getFixesDropped() {
+        return mFixesDropped.get();
+    }
+
+    /**
+     * Gets the number of write transactions performed by this session so far.
+     *
+     * @return the number of batches written
+     */
+    public long getBatchesWritten() {
+        return mBatchesWritten.get();
+    }
+
+    /**
+     * Gets the write throughput of this session, measured over the time spent writing.
+     *
+     * @return the number of locations written per second of write time, or {@code 0} if nothing
+     *         has been written yet
+     */
+    public double getWriteThroughput() {
+        long nanos = mWriteNanos.get();
+        return nanos == 0 ? 0 : mFixesWritten.get() * 1e9 / nanos;
+    }
+
+    /**
+     * The distance covered by a run, the time at which it was covered, and how long the run had
+     * been paused by then.
+     */
+    public static class Progress {
+        private final double mDistanceMeters;
+        private final long mTimestamp;
+        private final long mPausedMillis;
+
+        private Progress(double distanceMeters, long timestamp, long pausedMillis) {
+            mDistanceMeters = distanceMeters;
+            mTimestamp = timestamp;
+            mPausedMillis = pausedMillis;
+        }
+
+        /**
+         * Gets the distance covered.
+         *
+         * @return the distance covered (in meters)
+         */
+        public double getDistanceMeters() {
+            return mDistanceMeters;
+        }
+
+        /**
+         * Gets the time of the location at which the distance was covered.
+         *
+         * @return the time of the location (in milliseconds since the epoch)
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * Gets the total length of the run's pauses finished by the time of the location.
+         *
+         * @return the total length of the pauses (in milliseconds)
+         */
+        public long getPausedMillis() {
+            return mPausedMillis;
+        }
+
+        /**
+         * Gets the moving time of the run, from its start until the location, less its pauses.
+         *
+         * @param startMillis the start time of the run (in milliseconds since the epoch)
+         * @return the moving time of the run (in milliseconds)
+         */
+        public long getMovingMillis(long startMillis) {
+            return Math.max(0, mTimestamp - startMillis - mPausedMillis);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("run %d (%s): %d/%d fixes written in %d batches (%d paused," +
+                " %d dropped), %.0f fixes/s", mRunId, mProvider, getFixesWritten(),
+                getFixesReceived(), getBatchesWritten(), getFixesSuppressed(), getFixesDropped(),
+                getWriteThroughput());
+    }
+}
@@ -0,0 +1,78 @@
+package com.bignerdranch.android.runtracker;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes {@code long}s in a variable-length encoding: seven bits per byte, low bits
+ * first, with the high bit of each byte set if more bytes follow. Small values take a single
+ * byte, so this suits counts and the deltas of sorted or slowly changing values in the app's
+ * binary files.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class VarLong {
+
+    private VarLong() {
+        // Only static methods.
+    }
+
+    /**
+     * Writes the given value, treating it as unsigned.
+     *
+     * @param out the output to write to
+     * @param value the value to write
+     * @throws IOException if the value could not be written
+     */
+    public static void write(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * Writes the given signed value in "zigzag" form, so that values of small magnitude take few
+     * bytes whatever their sign.
+     *
+     * @param out the output to write to
+     * @param value the value to write
+     * @throws IOException if the value could not be written
+     */
+    public static void writeSigned(DataOutput out, long value) throws IOException {
+        write(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads a value written by {@link #write(DataOutput, long)}.
+     *
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if the value could not be read, or is malformed
+     */
+    public static long read(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    /**
+     * Reads a value written by {@link #writeSigned(DataOutput, long)}.
+     *
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if the value could not be read, or is malformed
+     */
+    public static long readSigned(DataInput in) throws IOException {
+        long value = read(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,222 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.Geodesy;
+import com.bignerdranch.android.runtracker.Track;
+
+/**
+ * Checks the accuracy of the {@link Geodesy} kernels, and of the distances a {@link Track} sums
+ * from them, against {@link Location#distanceBetween}, which solves the exact distance on the
+ * WGS84 ellipsoid (Vincenty's inverse formula). Also measures how many points per second each
+ * kernel measures, against a {@code distanceBetween()} call per pair.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class GeodesyTest extends TestCase {
+    private static final long SEED = 42;
+    private static final int SAMPLES = 10000;
+    private static final double MAX_LATITUDE = 80;
+    private static final double METERS_PER_DEGREE = 111320;
+    private static final String TAG = "GeodesyTest";
+    private static final int BENCHMARK_POINTS = 100000;
+    private static final int BENCHMARK_ROUNDS = 20;
+
+    public void testSegmentMetersWithin1Km() {
+        assertSegmentMetersAccurate(1000, 1e-7);
+    }
+
+    public void testSegmentMetersWithin10Km() {
+        assertSegmentMetersAccurate(10000, 3e-6);
+    }
+
+    public void testSegmentMetersAcrossAntimeridian() {
+        assertSegmentMetersAccurate(45, 179.995, 45.003, -179.996, 1e-7);
+        assertSegmentMetersAccurate(-12, -179.999, -12.001, 179.999, 1e-7);
+    }
+
+    public void testHaversineWithinSphericalError() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            double latitude1 = (random.nextDouble() * 2 - 1) * MAX_LATITUDE;
+            double longitude1 = (random.nextDouble() * 2 - 1) * 180;
+            double latitude2 = (random.nextDouble() * 2 - 1) * MAX_LATITUDE;
+            double longitude2 = longitude1 + (random.nextDouble() * 2 - 1) * 90;
+            double expected = distanceBetween(latitude1, longitude1, latitude2, longitude2);
+            double actual = Geodesy.haversineMeters(latitude1, longitude1, latitude2, longitude2);
+            assertEquals(describe(latitude1, longitude1, latitude2, longitude2), expected, actual,
+                    0.0056 * expected);
+        }
+    }
+
+    public void testArrayKernelMatchesScalar() {
+        Random random = new Random(SEED);
+        int size = 1000;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        randomWalk(random, latitudes, longitudes, 100);
+        double[] meters = new double[size];
+        Geodesy.segmentMeters(latitudes, longitudes, size, meters);
+
+        assertEquals(0.0, meters[0], 0);
+        for (int i = 1; i < size; i++) {
+            // Exactly equal, so distances summed a segment at a time match whole tracks.
+            assertEquals(Geodesy.segmentMeters(latitudes[i - 1], longitudes[i - 1], latitudes[i],
+                    longitudes[i]), meters[i], 0);
+        }
+    }
+
+    public void testCumulativeMetersMatchesLocation() {
+        Random random = new Random(SEED);
+        for (int run = 0; run < 20; run++) {
+            // About an hour at 1 Hz, with a few meters between fixes.
+            int size = 3600;
+            long[] timestamps = new long[size];
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            for (int i = 0; i < size; i++) {
+                timestamps[i] = i * 1000L;
+            }
+            randomWalk(random, latitudes, longitudes, 5);
+
+            double[] cumulative = new Track(run, size, timestamps, latitudes, longitudes)
+                    .getCumulativeMeters();
+            double expected = 0;
+            for (int i = 1; i < size; i++) {
+                expected += distanceBetween(latitudes[i - 1], longitudes[i - 1], latitudes[i],
+                        longitudes[i]);
+            }
+            assertEquals(describe(latitudes[0], longitudes[0], latitudes[size - 1],
+                    longitudes[size - 1]), expected, cumulative[size - 1], 1e-6 * expected);
+        }
+    }
+
+    @LargeTest
+    public void testThroughput() {
+        Random random = new Random(SEED);
+        final double[] latitudes = new double[BENCHMARK_POINTS];
+        final double[] longitudes = new double[BENCHMARK_POINTS];
+        randomWalk(random, latitudes, longitudes, 5);
+        final double[] meters = new double[BENCHMARK_POINTS];
+
+        double segmentRate = pointsPerSecond("segmentMeters", new Runnable() {
+            @Override
+            public void run() {
+                Geodesy.segmentMeters(latitudes, longitudes, BENCHMARK_POINTS, meters);
+            }
+        });
+        pointsPerSecond("haversineSegmentMeters", new Runnable() {
+            @Override
+            public void run() {
+                Geodesy.haversineSegmentMeters(latitudes, longitudes, BENCHMARK_POINTS, meters);
+            }
+        });
+        pointsPerSecond("haversineMetersFrom", new Runnable() {
+            @Override
+            public void run() {
+                Geodesy.haversineMetersFrom(latitudes[0], longitudes[0], latitudes, longitudes,
+                        BENCHMARK_POINTS, meters);
+            }
+        });
+        double referenceRate = pointsPerSecond("Location.distanceBetween", new Runnable() {
+            @Override
+            public void run() {
+                float[] results = new float[1];
+                for (int i = 1; i < BENCHMARK_POINTS; i++) {
+                    Location.distanceBetween(latitudes[i - 1], longitudes[i - 1], latitudes[i],
+                            longitudes[i], results);
+                    meters[i] = results[0];
+                }
+            }
+        });
+        assertTrue("segmentMeters measured " + segmentRate + " points/s, against "
+                + referenceRate + " for distanceBetween", segmentRate > referenceRate);
+    }
+
+    // Runs the kernel once to warm up, and then returns (and logs) the best rate of a few rounds.
+    private static double pointsPerSecond(String name, Runnable kernel) {
+        kernel.run();
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            kernel.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        double rate = BENCHMARK_POINTS * 1e9 / Math.max(1, bestNanos);
+        Log.i(TAG, name + ": " + Math.round(rate) + " points/s");
+        return rate;
+    }
+
+    // Checks segments in random places and directions, of up to the given length.
+    private static void assertSegmentMetersAccurate(double maxMeters, double maxRelativeError) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            double latitude1 = (random.nextDouble() * 2 - 1) * MAX_LATITUDE;
+            double longitude1 = (random.nextDouble() * 2 - 1) * 180;
+            double[] latitude2 = new double[1];
+            double[] longitude2 = new double[1];
+            step(random, latitude1, longitude1, random.nextDouble() * maxMeters, latitude2,
+                    longitude2);
+            assertSegmentMetersAccurate(latitude1, longitude1, latitude2[0], longitude2[0],
+                    maxRelativeError);
+        }
+    }
+
+    private static void assertSegmentMetersAccurate(double latitude1, double longitude1,
+            double latitude2, double longitude2, double maxRelativeError) {
+        float[] results = new float[1];
+        Location.distanceBetween(latitude1, longitude1, latitude2, longitude2, results);
+        double actual = Geodesy.segmentMeters(latitude1, longitude1, latitude2, longitude2);
+        // The reference is only as precise as a float.
+        double tolerance = maxRelativeError * results[0] + Math.ulp(results[0]);
+        assertEquals(describe(latitude1, longitude1, latitude2, longitude2), results[0], actual,
+                tolerance);
+    }
+
+    // Fills the arrays with a walk from a random place, taking steps of up to the given length.
+    private static void randomWalk(Random random, double[] latitudes, double[] longitudes,
+            double maxStepMeters) {
+        latitudes[0] = (random.nextDouble() * 2 - 1) * (MAX_LATITUDE - 1);
+        longitudes[0] = (random.nextDouble() * 2 - 1) * 180;
+        double[] latitude = new double[1];
+        double[] longitude = new double[1];
+        for (int i = 1; i < latitudes.length; i++) {
+            step(random, latitudes[i - 1], longitudes[i - 1],
+                    random.nextDouble() * maxStepMeters, latitude, longitude);
+            latitudes[i] = latitude[0];
+            longitudes[i] = longitude[0];
+        }
+    }
+
+    // Moves roughly the given distance from a point, in a random direction.
+    private static void step(Random random, double latitude, double longitude, double meters,
+            double[] toLatitude, double[] toLongitude) {
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        toLatitude[0] = latitude + meters * Math.cos(bearing) / METERS_PER_DEGREE;
+        toLongitude[0] = longitude + meters * Math.sin(bearing)
+                / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        if (toLongitude[0] > 180) {
+            toLongitude[0] -= 360;
+        } else if (toLongitude[0] < -180) {
+            toLongitude[0] += 360;
+        }
+    }
+
+    private static double distanceBetween(double latitude1, double longitude1,
+            double latitude2, double longitude2) {
+        float[] results = new float[1];
+        Location.distanceBetween(latitude1, longitude1, latitude2, longitude2, results);
+        return results[0];
+    }
+
+    private static String describe(double latitude1, double longitude1, double latitude2,
+            double longitude2) {
+        return "(" + latitude1 + ", " + longitude1 + ") to (" + latitude2 + ", " + longitude2
+                + ")";
+    }
+}
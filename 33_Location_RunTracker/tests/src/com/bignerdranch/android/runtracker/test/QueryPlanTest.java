@@ -0,0 +1,240 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.Run;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper;
+import com.bignerdranch.android.runtracker.RunQuery;
+
+/**
+ * Checks that the {@link RunDatabaseHelper} queries the UI depends on stay indexed, on synthetic
+ * databases of growing size, and records how long each query takes at each size.
+ * <p>
+ * No plan may scan a whole table. A plan may only walk a whole index (reading rows in index order
+ * until the query's limit) if the query has no filter, and may only sort rows in a temporary
+ * B-tree for the one shape that is known to need it: a date range sorted by another key, where
+ * only the runs in the range are sorted.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class QueryPlanTest extends AndroidTestCase {
+    private static final String TAG = "QueryPlanTest";
+
+    private static final String SCRATCH_DB_NAME = "query_plan_test.sqlite";
+    private static final long SEED = 42;
+    private static final int TIMING_REPETITIONS = 20;
+    private static final int[] SCALE_RUN_COUNTS = { 100, 1000, 10000 };
+    private static final int SCALE_LOCATIONS_PER_RUN = 1000;
+
+    private static final int ALLOW_INDEX_WALK = 1;
+    private static final int ALLOW_TEMP_SORT = 2;
+
+    private RunDatabaseHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        openScratchDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeScratchDatabase();
+        super.tearDown();
+    }
+
+    private void openScratchDatabase() {
+        getContext().deleteDatabase(SCRATCH_DB_NAME);
+        mHelper = new RunDatabaseHelper(getContext(), SCRATCH_DB_NAME);
+    }
+
+    private void closeScratchDatabase() {
+        mHelper.close();
+        getContext().deleteDatabase(SCRATCH_DB_NAME);
+    }
+
+    public void testPlansAreIndexed() {
+        new SyntheticDataGenerator(mHelper, SEED).generate(100, 10);
+        assertPlansIndexed();
+    }
+
+    @LargeTest
+    public void testPlansAndLatencyAtScale() {
+        for (int runCount : SCALE_RUN_COUNTS) {
+            closeScratchDatabase();
+            openScratchDatabase();
+            new SyntheticDataGenerator(mHelper, SEED).generate(runCount, SCALE_LOCATIONS_PER_RUN);
+            assertPlansIndexed();
+            for (Map.Entry<String, Long> entry : timeQueries().entrySet()) {
+                Log.i(TAG, runCount + " runs x " + SCALE_LOCATIONS_PER_RUN + " locations, "
+                        + entry.getKey() + ": " + entry.getValue() + " us");
+            }
+        }
+    }
+
+    private void assertPlansIndexed() {
+        List<String> violations = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> plan : mHelper.explainQueryPlans().entrySet()) {
+            // queryRuns() returns every run, in index order.
+            int allowed = plan.getKey().equals("queryRuns()") ? ALLOW_INDEX_WALK : 0;
+            checkPlan(plan.getKey(), plan.getValue(), allowed, violations);
+        }
+        for (Sample sample : getSampleRunQueries()) {
+            checkPlan(sample.mName, mHelper.explainQueryPlan(sample.mQuery), sample.mAllowed,
+                    violations);
+        }
+        assertTrue("Degraded query plans: " + violations, violations.isEmpty());
+    }
+
+    private static void checkPlan(String name, List<String> steps, int allowed,
+            List<String> violations) {
+        for (String step : steps) {
+            if (isDegraded(step, allowed)) {
+                violations.add(name + ": " + step);
+            }
+        }
+    }
+
+    private static boolean isDegraded(String step, int allowed) {
+        if (step.startsWith("SCAN")) {
+            // "SCAN TABLE run" (or "SCAN run" in newer versions) reads every row; a scan "USING
+            // INDEX" walks the whole index, which only an unfiltered query should do.
+            return !step.contains("INDEX") || (allowed & ALLOW_INDEX_WALK) == 0;
+        }
+        return step.contains("TEMP B-TREE") && (allowed & ALLOW_TEMP_SORT) == 0;
+    }
+
+    private static List<Sample> getSampleRunQueries() {
+        String[] sortNames = { "start date", "distance", "duration" };
+        Run after = new Run();
+        after.setId(1);
+        after.setStartDate(new Date(0));
+        after.setDistanceMeters(5000);
+        after.setDurationMillis(1800000);
+
+        List<Sample> samples = new ArrayList<Sample>();
+        for (int sortBy = 0; sortBy < sortNames.length; sortBy++) {
+            for (int direction = 0; direction < 2; direction++) {
+                boolean descending = direction == 1;
+                String name = "queryRuns(by " + sortNames[sortBy]
+                        + (descending ? " desc" : " asc");
+
+                RunQuery firstPage = createQuery(sortBy, descending);
+                samples.add(new Sample(name + ", first page)", firstPage, ALLOW_INDEX_WALK));
+
+                RunQuery nextPage = createQuery(sortBy, descending);
+                nextPage.setAfter(after);
+                samples.add(new Sample(name + ", next page)", nextPage, 0));
+
+                // Filtered on the sort key itself, so the filter bounds the index range.
+                RunQuery filtered = createQuery(sortBy, descending);
+                setSortKeyRange(filtered, sortBy);
+                samples.add(new Sample(name + ", filtered)", filtered, 0));
+
+                RunQuery filteredNextPage = createQuery(sortBy, descending);
+                setSortKeyRange(filteredNextPage, sortBy);
+                filteredNextPage.setAfter(after);
+                samples.add(new Sample(name + ", filtered, next page)", filteredNextPage, 0));
+
+                if (sortBy != RunQuery.SORT_BY_START_DATE) {
+                    // The known bounded sort: only the runs in the date range are sorted.
+                    RunQuery dateRange = createQuery(sortBy, descending);
+                    dateRange.setStartDateRange(new Date(0), new Date());
+                    samples.add(new Sample(name + ", date range)", dateRange, ALLOW_TEMP_SORT));
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static RunQuery createQuery(int sortBy, boolean descending) {
+        RunQuery query = new RunQuery();
+        query.setSortOrder(sortBy, descending);
+        query.setPageSize(50);
+        return query;
+    }
+
+    private static void setSortKeyRange(RunQuery query, int sortBy) {
+        switch (sortBy) {
+        case RunQuery.SORT_BY_DISTANCE:
+            query.setDistanceRange(5000, -1);
+            break;
+        case RunQuery.SORT_BY_DURATION:
+            query.setDurationRange(1800000, -1);
+            break;
+        default:
+            query.setStartDateRange(new Date(0), new Date());
+            break;
+        }
+    }
+
+    // Measures each query (including reading its first window of rows), returning the median of
+    // several repetitions in microseconds.
+    private Map<String, Long> timeQueries() {
+        long runId = mHelper.queryLastRunId();
+        RunQuery firstPage = new RunQuery();
+        firstPage.setPageSize(50);
+        Map<String, Long> medians = new LinkedHashMap<String, Long>();
+        long[] micros = new long[TIMING_REPETITIONS];
+
+        for (int i = 0; i < micros.length; i++) {
+            long start = System.nanoTime();
+            readAndClose(mHelper.queryRuns());
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        medians.put("queryRuns()", median(micros));
+        for (int i = 0; i < micros.length; i++) {
+            long start = System.nanoTime();
+            readAndClose(mHelper.queryRuns(firstPage));
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        medians.put("queryRuns(first page)", median(micros));
+        for (int i = 0; i < micros.length; i++) {
+            long start = System.nanoTime();
+            readAndClose(mHelper.queryRun(runId));
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        medians.put("queryRun()", median(micros));
+        for (int i = 0; i < micros.length; i++) {
+            long start = System.nanoTime();
+            readAndClose(mHelper.queryLastLocationForRun(runId));
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        medians.put("queryLastLocationForRun()", median(micros));
+        return medians;
+    }
+
+    private static void readAndClose(Cursor cursor) {
+        // Counting the rows fills the cursor's first window, as displaying them would.
+        cursor.getCount();
+        cursor.close();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static class Sample {
+        private final String mName;
+        private final RunQuery mQuery;
+        private final int mAllowed;
+
+        public Sample(String name, RunQuery query, int allowed) {
+            mName = name;
+            mQuery = query;
+            mAllowed = allowed;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.LocationSource;
+import com.bignerdranch.android.runtracker.Pause;
+import com.bignerdranch.android.runtracker.Run;
+import com.bignerdranch.android.runtracker.RunArchiver;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.BulkInserter;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.PauseCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.SplitCursor;
+import com.bignerdranch.android.runtracker.RunManager;
+import com.bignerdranch.android.runtracker.Split;
+import com.bignerdranch.android.runtracker.Track;
+
+/**
+ * Checks that runs written to snapshots by a {@link RunArchiver} are restored exactly, that a
+ * damaged snapshot is detected, and that restoring into a database that already has runs of its
+ * own keeps both. Each test works on scratch databases of synthetic runs.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunArchiverTest extends AndroidTestCase {
+    private static final String TAG = "RunArchiverTest";
+
+    private static final String SOURCE_DB_NAME = "archiver_test_source.sqlite";
+    private static final String TARGET_DB_NAME = "archiver_test_target.sqlite";
+    private static final String MANAGER_NAME = "archiver_test_manager";
+    private static final int LOCATIONS_PER_RUN = 100;
+    // The offset of the checksum of the first run block: the header (magic, format version and
+    // starting run ID), and the block's type, raw length and compressed length.
+    private static final int FIRST_CHECKSUM_OFFSET = 4 + 1 + 8 + 1 + 4 + 4;
+    private static final int SCALE_RUN_COUNT = 1000;
+    private static final int SCALE_LOCATIONS_PER_RUN = 1000;
+    private static final long MAX_SCALE_MILLIS = 60000;
+
+    private RunDatabaseHelper mSource;
+    private RunDatabaseHelper mTarget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(SOURCE_DB_NAME);
+        getContext().deleteDatabase(TARGET_DB_NAME);
+        mSource = new RunDatabaseHelper(getContext(), SOURCE_DB_NAME);
+        mTarget = new RunDatabaseHelper(getContext(), TARGET_DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.close();
+        mTarget.close();
+        getContext().deleteDatabase(SOURCE_DB_NAME);
+        getContext().deleteDatabase(TARGET_DB_NAME);
+        deleteManagerState();
+        super.tearDown();
+    }
+
+    public void testFullSnapshotRoundTrips() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(10, LOCATIONS_PER_RUN);
+        addSplitAndPause(mSource, 3);
+        byte[] snapshot = write(mSource, 0);
+
+        assertEquals(10, restore(mTarget, snapshot));
+        assertSameRuns(mSource, mTarget);
+        // Restoring again adds nothing.
+        assertEquals(0, restore(mTarget, snapshot));
+        assertEquals(10, countRuns(mTarget));
+    }
+
+    public void testIncrementalSnapshotRoundTrips() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(5, LOCATIONS_PER_RUN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long lastRunId = new RunArchiver(mSource).writeSnapshot(out, 0, Long.MAX_VALUE);
+        byte[] full = out.toByteArray();
+        assertEquals(mSource.queryLastRunId(), lastRunId);
+
+        new SyntheticDataGenerator(mSource, 2).generate(3, LOCATIONS_PER_RUN);
+        byte[] incremental = write(mSource, lastRunId);
+
+        assertEquals(5, restore(mTarget, full));
+        assertEquals(3, restore(mTarget, incremental));
+        assertSameRuns(mSource, mTarget);
+    }
+
+    public void testCorruptBlockIsDetected() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(3, LOCATIONS_PER_RUN);
+        byte[] snapshot = write(mSource, 0);
+        snapshot[FIRST_CHECKSUM_OFFSET] ^= 1;
+        try {
+            restore(mTarget, snapshot);
+            fail("A run block with the wrong checksum was restored");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(0, countRuns(mTarget));
+    }
+
+    public void testTruncatedSnapshotIsDetected() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(3, LOCATIONS_PER_RUN);
+        byte[] snapshot = write(mSource, 0);
+        for (int length : new int[] { 0, 10, snapshot.length / 2, snapshot.length - 1 }) {
+            try {
+                restore(mTarget, truncate(snapshot, length));
+                fail("A snapshot cut off after " + length + " bytes was restored");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+        // Retrying with the whole snapshot restores the runs the failed attempts missed.
+        restore(mTarget, snapshot);
+        assertSameRuns(mSource, mTarget);
+    }
+
+    public void testRestoreIntoDatabaseWithCollidingIds() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(5, LOCATIONS_PER_RUN);
+        // The target's own runs have the same IDs as the snapshot's, but other start dates.
+        new SyntheticDataGenerator(mTarget, 2).generate(3, LOCATIONS_PER_RUN / 2);
+        Map<Long, Run> ownRuns = loadRuns(mTarget);
+        byte[] snapshot = write(mSource, 0);
+
+        assertEquals(5, restore(mTarget, snapshot));
+        assertEquals(8, countRuns(mTarget));
+        for (Run own : ownRuns.values()) {
+            assertSameRun(mTarget, own, mTarget, own.getId());
+        }
+        assertSameRuns(mSource, mTarget);
+        assertEquals(0, restore(mTarget, snapshot));
+    }
+
+    public void testIncrementalSnapshotNeedsConfirmation() throws Exception {
+        new SyntheticDataGenerator(mSource, 1).generate(4, LOCATIONS_PER_RUN);
+        copyRuns(mSource, MANAGER_NAME + ".sqlite");
+        RunManager runManager = new RunManager(getContext(), MANAGER_NAME, new NoLocationSource());
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long lastRunId = runManager.writeSnapshot(out, true);
+            assertEquals(4, restore(mTarget, out.toByteArray()));
+
+            // Not confirmed (as if closing the stream had failed): the same runs are written
+            // again.
+            out.reset();
+            assertEquals(lastRunId, runManager.writeSnapshot(out, true));
+            assertEquals(4, countSnapshotRuns(out.toByteArray()));
+
+            runManager.confirmSnapshot(lastRunId);
+            out.reset();
+            runManager.writeSnapshot(out, true);
+            assertEquals(0, countSnapshotRuns(out.toByteArray()));
+        } finally {
+            runManager.close();
+        }
+    }
+
+    @LargeTest
+    public void testWriteAndRestoreAtScale() throws IOException {
+        new SyntheticDataGenerator(mSource, 1).generate(SCALE_RUN_COUNT, SCALE_LOCATIONS_PER_RUN);
+
+        long start = System.nanoTime();
+        byte[] snapshot = write(mSource, 0);
+        long writeMillis = (System.nanoTime() - start) / 1000000;
+        start = System.nanoTime();
+        assertEquals(SCALE_RUN_COUNT, restore(mTarget, snapshot));
+        long restoreMillis = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, SCALE_RUN_COUNT + " runs x " + SCALE_LOCATIONS_PER_RUN + " locations: "
+                + snapshot.length + " bytes, written in " + writeMillis + " ms, restored in "
+                + restoreMillis + " ms");
+        assertTrue("Writing took " + writeMillis + " ms", writeMillis < MAX_SCALE_MILLIS);
+        assertTrue("Restoring took " + restoreMillis + " ms", restoreMillis < MAX_SCALE_MILLIS);
+    }
+
+    private static byte[] write(RunDatabaseHelper helper, long afterRunId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RunArchiver(helper).writeSnapshot(out, afterRunId, Long.MAX_VALUE);
+        return out.toByteArray();
+    }
+
+    private static int restore(RunDatabaseHelper helper, byte[] snapshot) throws IOException {
+        return new RunArchiver(helper).restoreSnapshot(new ByteArrayInputStream(snapshot));
+    }
+
+    private static byte[] truncate(byte[] snapshot, int length) {
+        byte[] truncated = new byte[length];
+        System.arraycopy(snapshot, 0, truncated, 0, length);
+        return truncated;
+    }
+
+    // Counts the runs in a snapshot by restoring it into an empty scratch database.
+    private int countSnapshotRuns(byte[] snapshot) throws IOException {
+        String name = "archiver_test_count.sqlite";
+        getContext().deleteDatabase(name);
+        RunDatabaseHelper helper = new RunDatabaseHelper(getContext(), name);
+        try {
+            return restore(helper, snapshot);
+        } finally {
+            helper.close();
+            getContext().deleteDatabase(name);
+        }
+    }
+
+    private static void addSplitAndPause(RunDatabaseHelper helper, long runId) {
+        Track track = helper.queryTrack(runId);
+        long[] timestamps = track.getTimestamps();
+        BulkInserter inserter = helper.beginBulkInsert();
+        boolean successful = false;
+        try {
+            inserter.insertSplit(new Split(runId, Split.UNIT_KILOMETER, 0,
+                    timestamps[20] - timestamps[0], timestamps[20]));
+            inserter.insertPause(new Pause(runId, timestamps[30], timestamps[40]));
+            successful = true;
+        } finally {
+            inserter.close(successful);
+        }
+    }
+
+    // Checks that every run of the source is in the target, matched by start date.
+    private static void assertSameRuns(RunDatabaseHelper source, RunDatabaseHelper target) {
+        Map<Long, Long> targetIdsByStart = new HashMap<Long, Long>();
+        for (Run run : loadRuns(target).values()) {
+            targetIdsByStart.put(run.getStartDate().getTime(), run.getId());
+        }
+        for (Run run : loadRuns(source).values()) {
+            Long targetId = targetIdsByStart.get(run.getStartDate().getTime());
+            assertNotNull("Run " + run.getId() + " was not restored", targetId);
+            assertSameRun(source, run, target, targetId);
+        }
+    }
+
+    private static void assertSameRun(RunDatabaseHelper source, Run run,
+            RunDatabaseHelper target, long targetId) {
+        long sourceId = run.getId();
+        Run restored = loadRuns(target).get(targetId);
+        String message = "Run " + sourceId + " (restored as " + targetId + ")";
+        assertEquals(message, run.getStartDate(), restored.getStartDate());
+        assertEquals(message, run.getDistanceMeters(), restored.getDistanceMeters(), 0);
+        assertEquals(message, run.getDurationMillis(), restored.getDurationMillis());
+        assertEquals(message, run.getMovingMillis(), restored.getMovingMillis());
+
+        Track expected = source.queryTrack(sourceId);
+        Track actual = target.queryTrack(targetId);
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.getTimestamps()[i], actual.getTimestamps()[i]);
+            assertEquals(message, expected.getLatitudes()[i], actual.getLatitudes()[i], 0);
+            assertEquals(message, expected.getLongitudes()[i], actual.getLongitudes()[i], 0);
+        }
+        assertEquals(message, describeSplits(source, sourceId), describeSplits(target, targetId));
+        assertEquals(message, describePauses(source, sourceId), describePauses(target, targetId));
+    }
+
+    private static String describeSplits(RunDatabaseHelper helper, long runId) {
+        StringBuilder description = new StringBuilder();
+        SplitCursor splits = helper.querySplitsForRun(runId, Split.UNIT_KILOMETER);
+        try {
+            while (splits.moveToNext()) {
+                Split split = splits.getSplit();
+                description.append(split.getIndex()).append(':').append(split.getElapsedMillis())
+                        .append('@').append(split.getEndTimestamp()).append(' ');
+            }
+        } finally {
+            splits.close();
+        }
+        return description.toString();
+    }
+
+    private static String describePauses(RunDatabaseHelper helper, long runId) {
+        StringBuilder description = new StringBuilder();
+        PauseCursor pauses = helper.queryPausesForRun(runId);
+        try {
+            while (pauses.moveToNext()) {
+                Pause pause = pauses.getPause();
+                description.append(pause.getStartTimestamp()).append('-')
+                        .append(pause.getEndTimestamp()).append(' ');
+            }
+        } finally {
+            pauses.close();
+        }
+        return description.toString();
+    }
+
+    private static Map<Long, Run> loadRuns(RunDatabaseHelper helper) {
+        Map<Long, Run> runs = new HashMap<Long, Run>();
+        RunCursor cursor = helper.queryRuns();
+        try {
+            while (cursor.moveToNext()) {
+                Run run = cursor.getRun();
+                runs.put(run.getId(), run);
+            }
+        } finally {
+            cursor.close();
+        }
+        return runs;
+    }
+
+    private static int countRuns(RunDatabaseHelper helper) {
+        return loadRuns(helper).size();
+    }
+
+    // Copies the runs of a scratch database into a new database by way of a snapshot.
+    private void copyRuns(RunDatabaseHelper from, String toName) throws IOException {
+        getContext().deleteDatabase(toName);
+        RunDatabaseHelper to = new RunDatabaseHelper(getContext(), toName);
+        try {
+            restore(to, write(from, 0));
+        } finally {
+            to.close();
+        }
+    }
+
+    private void deleteManagerState() {
+        getContext().deleteDatabase(MANAGER_NAME + ".sqlite");
+        getContext().getSharedPreferences(MANAGER_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+        File dir = getContext().getDir(MANAGER_NAME, Context.MODE_PRIVATE);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * A source for a {@link RunManager} that tracks no runs.
+     */
+    private static class NoLocationSource implements LocationSource {
+
+        @Override
+        public String getDefaultProvider() {
+            return LocationManager.GPS_PROVIDER;
+        }
+
+        @Override
+        public void start(long runId, String provider) {
+            throw new UnsupportedOperationException("No runs are tracked in this test");
+        }
+
+        @Override
+        public void stop(long runId) {
+            // Nothing was started.
+        }
+
+        @Override
+        public boolean isStarted(long runId) {
+            return false;
+        }
+    }
+}
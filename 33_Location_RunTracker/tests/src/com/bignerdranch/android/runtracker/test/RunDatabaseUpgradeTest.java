@@ -0,0 +1,126 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.io.File;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.bignerdranch.android.runtracker.Geodesy;
+import com.bignerdranch.android.runtracker.Recomputer;
+import com.bignerdranch.android.runtracker.Run;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.RunCursor;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.SplitCursor;
+import com.bignerdranch.android.runtracker.Split;
+import com.bignerdranch.android.runtracker.SplitBackfillJob;
+
+/**
+ * Checks that a database of the first version, holding a recorded run, upgrades to the current
+ * version: the run gets its distance, duration and moving time during the upgrade, and its
+ * splits from the {@link SplitBackfillJob} afterwards.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunDatabaseUpgradeTest extends AndroidTestCase {
+    private static final String SCRATCH_DB_NAME = "upgrade_test.sqlite";
+    private static final long START_MILLIS = 1388534400000L; // 2014-01-01
+    private static final int LOCATION_COUNT = 300;
+    private static final double START_LATITUDE = 33.7490;
+    private static final double START_LONGITUDE = -84.3880;
+    // About 5 m north between fixes, one second apart.
+    private static final double LATITUDE_STEP = 4.5e-5;
+
+    private RunDatabaseHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(SCRATCH_DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        getContext().deleteDatabase(SCRATCH_DB_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromVersion1() throws Exception {
+        long runId = createVersion1Database();
+        double expectedMeters = 0;
+        for (int i = 1; i < LOCATION_COUNT; i++) {
+            expectedMeters += Geodesy.segmentMeters(latitude(i - 1), START_LONGITUDE,
+                    latitude(i), START_LONGITUDE);
+        }
+        long expectedMillis = (LOCATION_COUNT - 1) * 1000L;
+
+        // Opening the database upgrades it.
+        mHelper = new RunDatabaseHelper(getContext(), SCRATCH_DB_NAME);
+        RunCursor runs = mHelper.queryRun(runId);
+        Run run;
+        try {
+            assertTrue("The run was lost", runs.moveToFirst());
+            run = runs.getRun();
+        } finally {
+            runs.close();
+        }
+        assertEquals(expectedMeters, run.getDistanceMeters(), 1e-6);
+        assertEquals(expectedMillis, run.getDurationMillis());
+        // Runs recorded before pauses were never paused.
+        assertEquals(expectedMillis, run.getMovingMillis());
+
+        // The splits are left to the background job.
+        assertEquals(0, countSplits(runId));
+        new Recomputer(mHelper).run(new SplitBackfillJob(mHelper), 1);
+        assertEquals(1, countSplits(runId));
+    }
+
+    public void testNewDatabaseSkipsSplitBackfill() {
+        mHelper = new RunDatabaseHelper(getContext(), SCRATCH_DB_NAME);
+        assertEquals(Long.MAX_VALUE, mHelper.queryRecomputeCheckpoint(SplitBackfillJob.NAME,
+                SplitBackfillJob.VERSION));
+    }
+
+    // Creates the database as the first version of the app did, holding a single run of about
+    // 1.5 km, and returns the ID of the run.
+    private long createVersion1Database() {
+        File path = getContext().getDatabasePath(SCRATCH_DB_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            db.execSQL("create table run (_id integer primary key autoincrement," +
+                    " start_date integer)");
+            db.execSQL("create table location (" +
+                    " timestamp integer, latitude real, longitude real, altitude real," +
+                    " provider varchar(100), run_id integer references run(_id))");
+            db.execSQL("insert into run (start_date) values (?)",
+                    new Object[] { START_MILLIS });
+            long runId = 1;
+            for (int i = 0; i < LOCATION_COUNT; i++) {
+                db.execSQL("insert into location (timestamp, latitude, longitude, altitude," +
+                        " provider, run_id) values (?, ?, ?, 300, 'gps', ?)",
+                        new Object[] { START_MILLIS + i * 1000L, latitude(i), START_LONGITUDE,
+                                runId });
+            }
+            db.setVersion(1);
+            return runId;
+        } finally {
+            db.close();
+        }
+    }
+
+    private int countSplits(long runId) {
+        SplitCursor splits = mHelper.querySplitsForRun(runId, Split.UNIT_KILOMETER);
+        try {
+            return splits.getCount();
+        } finally {
+            splits.close();
+        }
+    }
+
+    private static double latitude(int i) {
+        return START_LATITUDE + i * LATITUDE_STEP;
+    }
+}
@@ -0,0 +1,176 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+
+import com.bignerdranch.android.runtracker.LocationSource;
+import com.bignerdranch.android.runtracker.Run;
+import com.bignerdranch.android.runtracker.RunManager;
+import com.bignerdranch.android.runtracker.TrackingSession;
+
+/**
+ * Hammers the {@link RunManager} with starts, stops and locations from many threads at once, and
+ * checks that it always comes to rest with only the current run tracked: no session, and no
+ * location updates, left behind for a run that was stopped.
+ * <p>
+ * The {@code RunManager} under test is one of its own, with a scratch database and a fake
+ * {@link LocationSource}, so the runs the user has recorded, the run being tracked, and the
+ * device's location are never touched.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class RunManagerStressTest extends AndroidTestCase {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 200;
+    private static final int ROUNDS = 5;
+
+    private static final String SCRATCH_NAME = "run_manager_stress_test";
+
+    private RunManager mRunManager;
+    private final List<Long> mRunIds = Collections.synchronizedList(new ArrayList<Long>());
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteScratchState();
+        mRunManager = new RunManager(getContext(), SCRATCH_NAME, new FakeLocationSource());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRunManager.stopRun();
+        mRunManager.close();
+        deleteScratchState();
+        super.tearDown();
+    }
+
+    private void deleteScratchState() {
+        getContext().deleteDatabase(SCRATCH_NAME + ".sqlite");
+        getContext().getSharedPreferences(SCRATCH_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+        File dir = getContext().getDir(SCRATCH_NAME, Context.MODE_PRIVATE);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testStartStopAndInsertFromManyThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                runRound(executor, round);
+                assertOnlyCurrentRunTracked();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        mRunManager.stopRun();
+        assertNull(mRunManager.getCurrentRun());
+        assertOnlyCurrentRunTracked();
+    }
+
+    private void runRound(ExecutorService executor, int round) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = round * THREADS + t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        switch (random.nextInt(3)) {
+                        case 0:
+                            mRunIds.add(mRunManager.startNewRun().getId());
+                            break;
+                        case 1:
+                            mRunManager.stopRun();
+                            break;
+                        default:
+                            mRunManager.insertLocation(createLocation(random));
+                            break;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        // Rethrows anything a thread threw.
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private void assertOnlyCurrentRunTracked() {
+        Run current = mRunManager.getCurrentRun();
+        Collection<TrackingSession> sessions = mRunManager.getTrackingSessions();
+        if (current == null) {
+            assertTrue("Sessions left with no current run: " + sessions, sessions.isEmpty());
+        } else {
+            assertEquals("Sessions: " + sessions, 1, sessions.size());
+            assertEquals(current.getId(), sessions.iterator().next().getRunId());
+        }
+        synchronized (mRunIds) {
+            for (long runId : mRunIds) {
+                if (current == null || runId != current.getId()) {
+                    assertFalse("Stopped run " + runId + " is still tracked",
+                            mRunManager.isTrackingSession(runId));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps track of which runs have their location updates started, without ever delivering any.
+     */
+    private static class FakeLocationSource implements LocationSource {
+        private final Set<Long> mStarted = Collections.synchronizedSet(new HashSet<Long>());
+
+        @Override
+        public String getDefaultProvider() {
+            return LocationManager.GPS_PROVIDER;
+        }
+
+        @Override
+        public void start(long runId, String provider) {
+            mStarted.add(runId);
+        }
+
+        @Override
+        public void stop(long runId) {
+            mStarted.remove(runId);
+        }
+
+        @Override
+        public boolean isStarted(long runId) {
+            return mStarted.contains(runId);
+        }
+    }
+
+    private static Location createLocation(Random random) {
+        Location loc = new Location(LocationManager.GPS_PROVIDER);
+        loc.setTime(System.currentTimeMillis());
+        loc.setLatitude(33.7490 + random.nextDouble() * 0.01);
+        loc.setLongitude(-84.3880 + random.nextDouble() * 0.01);
+        return loc;
+    }
+}
@@ -0,0 +1,138 @@
+package com.bignerdranch.android.runtracker.test;
+
+import java.util.Date;
+import java.util.Random;
+
+import android.util.Log;
+
+import com.bignerdranch.android.runtracker.Geodesy;
+import com.bignerdranch.android.runtracker.Run;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper;
+import com.bignerdranch.android.runtracker.RunDatabaseHelper.BulkInserter;
+
+/**
+ * Fills a database with synthetic runs, to see how the app behaves with years of history. The
+ * runs are generated from a seed alone, so the same seed always produces the same database.
+ * <p>
+ * Each run starts a day or two after the previous one, a few kilometers from a fixed home, and
+ * has one fix per second, following a meandering course at a steady running pace with a couple of
+ * meters of GPS noise. Runs get a summary (distance and duration), but no splits, pauses or best
+ * efforts.
+ *
+ * @author ajkwak@users.noreply.github.com (AJ Parmidge)
+ */
+public class SyntheticDataGenerator {
+    private static final String TAG = "SyntheticDataGenerator";
+
+    private static final long FIRST_START_MILLIS = 1325376000000L; // 2012-01-01T00:00:00Z
+    private static final double HOME_LATITUDE = 33.7490;
+    private static final double HOME_LONGITUDE = -84.3880;
+    private static final double METERS_PER_DEGREE = 111320;
+    private static final String PROVIDER = "gps";
+    private static final int COMMIT_ROWS = 8192;
+
+    private final RunDatabaseHelper mHelper;
+    private final Random mRandom;
+
+    /**
+     * Creates a new {@code SyntheticDataGenerator} for the given database.
+     *
+     * @param helper the database to fill (normally a scratch database, not the user's)
+     * @param seed the seed from which to generate the runs
+     */
+    public SyntheticDataGenerator(RunDatabaseHelper helper, long seed) {
+        mHelper = helper;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Generates the given number of runs, with the given number of locations each. The runs get
+     * the IDs following those of any runs already in the database. A run whose start date is
+     * already in the database (e.g. one generated before from the same seed) is skipped.
+     *
+     * @param runCount the number of runs to generate
+     * @param locationsPerRun the number of locations in each run (at least 1)
+     * @return the number of runs inserted
+     */
+    public int generate(int runCount, int locationsPerRun) {
+        if (locationsPerRun < 1) {
+            throw new IllegalArgumentException("Runs need at least one location");
+        }
+        long start = System.nanoTime();
+        long[] timestamps = new long[locationsPerRun];
+        double[] latitudes = new double[locationsPerRun];
+        double[] longitudes = new double[locationsPerRun];
+        double[] segmentMeters = new double[locationsPerRun];
+
+        long nextRunId = mHelper.queryLastRunId() + 1;
+        long startMillis = FIRST_START_MILLIS;
+        int insertedCount = 0;
+        BulkInserter inserter = mHelper.beginBulkInsert();
+        boolean successful = false;
+        try {
+            for (int i = 0; i < runCount; i++) {
+                startMillis += 86400000L + (long)(mRandom.nextDouble() * 86400000L);
+                generateTrack(startMillis, locationsPerRun, timestamps, latitudes, longitudes);
+
+                Geodesy.segmentMeters(latitudes, longitudes, locationsPerRun, segmentMeters);
+                double distanceMeters = 0;
+                for (int j = 1; j < locationsPerRun; j++) {
+                    distanceMeters += segmentMeters[j];
+                }
+                long durationMillis = timestamps[locationsPerRun - 1] - startMillis;
+                Run run = new Run();
+                run.setId(nextRunId);
+                run.setStartDate(new Date(startMillis));
+                run.setDistanceMeters(distanceMeters);
+                run.setDurationMillis(durationMillis);
+                run.setMovingMillis(durationMillis);
+                // Skipped runs still draw their tracks, so a seed always generates the same runs.
+                long runId = inserter.insertRun(run);
+                if (runId == -1) {
+                    continue;
+                }
+                nextRunId = runId + 1;
+                insertedCount++;
+                for (int j = 0; j < locationsPerRun; j++) {
+                    // Altitude wanders gently around 300 m.
+                    double altitude = 300 + 20 * Math.sin(j / 600.0);
+                    inserter.insertLocation(runId, timestamps[j], latitudes[j], longitudes[j],
+                            altitude, PROVIDER);
+                }
+                if (inserter.getPendingRowCount() >= COMMIT_ROWS) {
+                    inserter.commit();
+                }
+            }
+            successful = true;
+        } finally {
+            inserter.close(successful);
+        }
+        Log.d(TAG, "Generated " + insertedCount + " runs of " + locationsPerRun + " locations in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return insertedCount;
+    }
+
+    private void generateTrack(long startMillis, int size, long[] timestamps, double[] latitudes,
+            double[] longitudes) {
+        double northMeters = (mRandom.nextDouble() - 0.5) * 6000;
+        double eastMeters = (mRandom.nextDouble() - 0.5) * 6000;
+        double heading = mRandom.nextDouble() * 2 * Math.PI;
+        double metersPerSecond = 2.5 + mRandom.nextDouble() * 1.5;
+        double metersPerDegreeLongitude =
+                METERS_PER_DEGREE * Math.cos(Math.toRadians(HOME_LATITUDE));
+        double northNoise = 0;
+        double eastNoise = 0;
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = startMillis + i * 1000L;
+            // The true course turns a little every second. GPS error drifts rather than jumping
+            // from fix to fix, so the noise is correlated over time (about 2 m overall).
+            heading += mRandom.nextGaussian() * 0.05;
+            northMeters += metersPerSecond * Math.cos(heading);
+            eastMeters += metersPerSecond * Math.sin(heading);
+            northNoise = 0.9 * northNoise + mRandom.nextGaussian() * 0.9;
+            eastNoise = 0.9 * eastNoise + mRandom.nextGaussian() * 0.9;
+            latitudes[i] = HOME_LATITUDE + (northMeters + northNoise) / METERS_PER_DEGREE;
+            longitudes[i] = HOME_LONGITUDE + (eastMeters + eastNoise) / metersPerDegreeLongitude;
+        }
+    }
+}